@@ -240,6 +240,11 @@ public class AbstractPlugin implements Plugin<Project> {
 
 			dependencyManager.handleDependencies(project1);
 
+			//Mod sources are only remapped when something is going to attach them
+			project1.getTasks().getByName("idea").dependsOn("remapModSources");
+			project1.getTasks().getByName("eclipse").dependsOn("remapModSources");
+			project1.getTasks().getByName("vscode").dependsOn("remapModSources");
+
 			project1.getTasks().getByName("idea").finalizedBy(project1.getTasks().getByName("genIdeaWorkspace"));
 			project1.getTasks().getByName("eclipse").finalizedBy(project1.getTasks().getByName("genEclipseRuns"));
 			project1.getTasks().getByName("cleanEclipse").finalizedBy(project1.getTasks().getByName("cleanEclipseRuns"));
@@ -57,6 +57,7 @@ import net.fabricmc.loom.providers.MappingsProvider;
 import net.fabricmc.loom.providers.MinecraftMappedProvider;
 import net.fabricmc.loom.providers.MinecraftProvider;
 import net.fabricmc.loom.util.LoomDependencyManager;
+import net.fabricmc.loom.util.assets.AssetDownloader;
 
 public class LoomGradleExtension {
 	public String runDir = "run";
@@ -66,6 +67,12 @@ public class LoomGradleExtension {
 	public boolean autoGenIDERuns = true;
 	public String customManifest = null;
 	public File accessWidener = null;
+	public int assetDownloadThreads = AssetDownloader.KEEP_ALIVE_CONNECTIONS;
+	public boolean paranoidAssetVerification = false;
+	public boolean incrementalMinecraftRemap = false;
+	//Keep only the processed classes per project, genSources output is then not attached by IDEs and the processed classes
+	//are on the classpath twice (the overlay's first), so tools which reject duplicate classes will not work with it
+	public boolean overlayProcessedJar = false;
 	public Function<String, Object> intermediaryUrl = mcVer -> "https://maven.fabricmc.net/net/fabricmc/intermediary/" + mcVer + "/intermediary-" + mcVer + "-v2.jar";
 	public GloomDefinitions definitions = new GloomDefinitions(new HashSet<>());
 
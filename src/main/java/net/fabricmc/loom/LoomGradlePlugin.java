@@ -43,6 +43,7 @@ import net.fabricmc.loom.task.GenVsCodeProjectTask;
 import net.fabricmc.loom.task.GenerateSourcesTask;
 import net.fabricmc.loom.task.MigrateMappingsTask;
 import net.fabricmc.loom.task.RemapJarTask;
+import net.fabricmc.loom.task.RemapModSourcesTask;
 import net.fabricmc.loom.task.RemapSourcesJarTask;
 import net.fabricmc.loom.task.RunClientTask;
 import net.fabricmc.loom.task.RunServerTask;
@@ -114,6 +115,8 @@ public class LoomGradlePlugin extends AbstractPlugin {
 
 		tasks.register("remapSourcesJar", RemapSourcesJarTask.class, t -> t.setDescription("Remaps the project sources jar to intermediary names."));
 
+		tasks.register("remapModSources", RemapModSourcesTask.class, t -> t.setDescription("Remaps the sources of mod dependencies for IDEs to attach."));
+
 		tasks.register("runClient", RunClientTask.class, t -> {
 			t.setDescription("Starts a development version of the Minecraft client.");
 			t.dependsOn("jar", "downloadAssets");
@@ -133,7 +136,7 @@ public class LoomGradlePlugin extends AbstractPlugin {
 			for (LoomDecompiler decompiler : extension.decompilers) {
 				String taskName = (decompiler instanceof FabricFernFlowerDecompiler) ? "genSources" : "genSourcesWith" + decompiler.name();
 				// decompiler will be passed to the constructor of GenerateSourcesTask
-				tasks.register(taskName, GenerateSourcesTask.class, decompiler);
+				tasks.register(taskName, GenerateSourcesTask.class, decompiler).configure(t -> t.dependsOn("remapModSources"));
 			}
 		});
 	}
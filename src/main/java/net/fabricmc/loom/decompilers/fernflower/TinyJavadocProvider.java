@@ -24,67 +24,44 @@
 
 package net.fabricmc.loom.decompilers.fernflower;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.jetbrains.java.decompiler.struct.StructClass;
 import org.jetbrains.java.decompiler.struct.StructField;
 import org.jetbrains.java.decompiler.struct.StructMethod;
 
 import net.fabricmc.fernflower.api.IFabricJavadocProvider;
-import net.fabricmc.mapping.tree.ClassDef;
-import net.fabricmc.mapping.tree.FieldDef;
-import net.fabricmc.mapping.tree.MethodDef;
-import net.fabricmc.mapping.tree.ParameterDef;
-import net.fabricmc.mapping.tree.TinyMappingFactory;
-import net.fabricmc.mapping.tree.TinyTree;
-import net.fabricmc.mappings.EntryTriple;
+import net.fabricmc.loom.util.mappings.CompactMappings;
 
 public class TinyJavadocProvider implements IFabricJavadocProvider {
-	private final Map<String, ClassDef> classes = new HashMap<>();
-	private final Map<EntryTriple, FieldDef> fields = new HashMap<>();
-	private final Map<EntryTriple, MethodDef> methods = new HashMap<>();
+	private final CompactMappings mappings;
 
 	private final String namespace = "named";
 
 	public TinyJavadocProvider(File tinyFile) {
-		final TinyTree mappings = readMappings(tinyFile);
-
-		for (ClassDef classDef : mappings.getClasses()) {
-			final String className = classDef.getName(namespace);
-			classes.put(className, classDef);
-
-			for (FieldDef fieldDef : classDef.getFields()) {
-				fields.put(new EntryTriple(className, fieldDef.getName(namespace), fieldDef.getDescriptor(namespace)), fieldDef);
-			}
-
-			for (MethodDef methodDef : classDef.getMethods()) {
-				methods.put(new EntryTriple(className, methodDef.getName(namespace), methodDef.getDescriptor(namespace)), methodDef);
-			}
-		}
+		mappings = readMappings(tinyFile);
 	}
 
 	@Override
 	public String getClassDoc(StructClass structClass) {
-		ClassDef classDef = classes.get(structClass.qualifiedName);
+		CompactMappings.ClassEntry classDef = mappings.findClass(namespace, structClass.qualifiedName);
 		return classDef != null ? classDef.getComment() : null;
 	}
 
 	@Override
 	public String getFieldDoc(StructClass structClass, StructField structField) {
-		FieldDef fieldDef = fields.get(new EntryTriple(structClass.qualifiedName, structField.getName(), structField.getDescriptor()));
+		CompactMappings.ClassEntry classDef = mappings.findClass(namespace, structClass.qualifiedName);
+		CompactMappings.FieldEntry fieldDef = classDef != null ? classDef.findField(namespace, structField.getName(), structField.getDescriptor()) : null;
 		return fieldDef != null ? fieldDef.getComment() : null;
 	}
 
 	@Override
 	public String getMethodDoc(StructClass structClass, StructMethod structMethod) {
-		MethodDef methodDef = methods.get(new EntryTriple(structClass.qualifiedName, structMethod.getName(), structMethod.getDescriptor()));
+		CompactMappings.ClassEntry classDef = mappings.findClass(namespace, structClass.qualifiedName);
+		CompactMappings.MethodEntry methodDef = classDef != null ? classDef.findMethod(namespace, structMethod.getName(), structMethod.getDescriptor()) : null;
 
 		if (methodDef != null) {
 			List<String> parts = new ArrayList<>();
@@ -95,7 +72,7 @@ public class TinyJavadocProvider implements IFabricJavadocProvider {
 
 			boolean addedParam = false;
 
-			for (ParameterDef param : methodDef.getParameters()) {
+			for (CompactMappings.ParameterEntry param : methodDef.getParameters()) {
 				String comment = param.getComment();
 
 				if (comment != null) {
@@ -119,9 +96,10 @@ public class TinyJavadocProvider implements IFabricJavadocProvider {
 		return null;
 	}
 
-	private static TinyTree readMappings(File input) {
-		try (BufferedReader reader = Files.newBufferedReader(input.toPath())) {
-			return TinyMappingFactory.loadWithDetection(reader);
+	private static CompactMappings readMappings(File input) {
+		//Only parses the tiny file if loom hasn't already written the compact form next to it
+		try {
+			return CompactMappings.load(input.toPath());
 		} catch (IOException e) {
 			throw new RuntimeException("Failed to read mappings", e);
 		}
@@ -0,0 +1,83 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package net.fabricmc.loom.processors;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.hash.Hasher;
+import org.gradle.api.logging.Logging;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+/**
+ * A {@link JarProcessor} which only changes classes, so can share a single pass over the jar with any others.
+ *
+ * <p>Each targeted class is read once, passed through the visitors of every processor which targets it in the order
+ * the processors were set up, then written once. Every other entry is copied across as it is.
+ */
+public interface ClassProcessor extends JarProcessor {
+	/**
+	 * The internal names of the classes this processor needs to change.
+	 */
+	Set<String> getTargets();
+
+	/**
+	 * Create the visitor which changes the given class, passing the changed class on to the given visitor.
+	 */
+	ClassVisitor createVisitor(String className, ClassVisitor next);
+
+	/**
+	 * Add everything this processor would change about the given class to the hasher, so that the class is only
+	 * processed again once that changes. By default classes can't be fingerprinted, so are always processed again.
+	 *
+	 * @param className The internal name of the class
+	 * @param reader The class as it is before being processed
+	 * @return Whether the class could be fingerprinted
+	 */
+	default boolean fingerprint(String className, ClassReader reader, Hasher hasher) {
+		return false;
+	}
+
+	/**
+	 * Extra entries to add to the processed jar, such as the hash of what it was processed with.
+	 */
+	default Map<String, byte[]> getExtraEntries() {
+		return Collections.emptyMap();
+	}
+
+	/**
+	 * Called once every targeted class has been processed.
+	 */
+	default void finish(File annotationProcessorJar) { }
+
+	@Override
+	default void process(File file, File annotationProcessorJar) {
+		JarProcessorManager.processClasses(Collections.singletonList(this), file, file, annotationProcessorJar, false, Logging.getLogger(ClassProcessor.class));
+	}
+}
@@ -24,18 +24,50 @@
 
 package net.fabricmc.loom.processors;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.io.IOUtils;
 import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
 
 import net.fabricmc.loom.LoomGradleExtension;
+import net.fabricmc.loom.util.HashingService;
 import net.fabricmc.loom.util.accesswidener.AccessWidenerJarProcessor;
 import net.fabricmc.loom.util.gloom.GloomJarProcessor;
+import net.fabricmc.loom.util.zip.ZipWriter;
 
 public class JarProcessorManager {
+	private static final String FINGERPRINTS = "processed.fingerprints";
+	//Bump this if the way classes are processed changes
+	private static final int FINGERPRINTS_VERSION = 1;
+
 	private final Project project;
 	private final LoomGradleExtension extension;
 
@@ -75,10 +107,248 @@ public class JarProcessorManager {
 		return jarProcessors.stream().anyMatch(jarProcessor -> jarProcessor.isInvalid(file));
 	}
 
-	public void process(File file, File annotationProcessorJar) {
+	/**
+	 * Process the given jar into the output jar. Every {@link ClassProcessor} is run together in a single pass, which
+	 * also copies the input across, then any other processors are run one after another on the output.
+	 */
+	public void process(File input, File output, File annotationProcessorJar) {
+		processClasses(getClassProcessors(), input, output, annotationProcessorJar, false, project.getLogger());
+
 		for (JarProcessor jarProcessor : jarProcessors) {
-			jarProcessor.process(file, annotationProcessorJar);
+			if (!(jarProcessor instanceof ClassProcessor)) {
+				jarProcessor.process(output, annotationProcessorJar);
+			}
+		}
+	}
+
+	/**
+	 * Whether every processor only changes classes, so their output can be kept as an overlay on the input jar.
+	 */
+	public boolean canOverlay() {
+		return jarProcessors.stream().allMatch(jarProcessor -> jarProcessor instanceof ClassProcessor);
+	}
+
+	/**
+	 * Process the given jar into an overlay jar, which only holds the classes the processors changed. The overlay
+	 * needs to come before the input jar on any classpath.
+	 *
+	 * @throws IllegalStateException If any of the processors can't {@link #canOverlay() overlay} the input
+	 */
+	public void processOverlay(File input, File overlay, File annotationProcessorJar) {
+		if (!canOverlay()) {
+			throw new IllegalStateException("Not every jar processor can be used for an overlay");
+		}
+
+		processClasses(getClassProcessors(), input, overlay, annotationProcessorJar, true, project.getLogger());
+	}
+
+	private List<ClassProcessor> getClassProcessors() {
+		List<ClassProcessor> classProcessors = new ArrayList<>();
+
+		for (JarProcessor jarProcessor : jarProcessors) {
+			if (jarProcessor instanceof ClassProcessor) {
+				classProcessors.add((ClassProcessor) jarProcessor);
+			}
+		}
+
+		return classProcessors;
+	}
+
+	/**
+	 * Run the given processors over the input jar, writing the result to the output jar.
+	 *
+	 * <p>The fingerprint of every processed class is kept in the output. If the output is processed again from the
+	 * same input, any class whose fingerprint hasn't changed is copied from the previous output rather than processed
+	 * again, so a small change to an access widener only touches the classes it affects.
+	 *
+	 * @param overlay Whether to leave out everything the processors didn't change
+	 */
+	static void processClasses(List<ClassProcessor> processors, File input, File output, File annotationProcessorJar, boolean overlay, Logger logger) {
+		//Sorted so the classes are always written in the same order
+		Map<String, List<ClassProcessor>> targets = new TreeMap<>();
+
+		for (ClassProcessor processor : processors) {
+			for (String target : processor.getTargets()) {
+				targets.computeIfAbsent(target, k -> new ArrayList<>()).add(processor);
+			}
+		}
+
+		try {
+			String inputHash = HashingService.toHex(HashingService.INSTANCE.sha1(input));
+			//Processing a jar in place leaves nothing unprocessed to start from
+			boolean inPlace = input.getAbsoluteFile().equals(output.getAbsoluteFile());
+			Map<String, String> previous = inPlace ? null : readFingerprints(output, inputHash);
+			Map<String, String> fingerprints = new ConcurrentHashMap<>();
+			Set<String> reused = new HashSet<>();
+			ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), targets.size())));
+
+			try (ZipWriter writer = new ZipWriter(output.toPath())) {
+				if (!overlay) {
+					//Kept at the front, where JarInputStream expects it
+					writer.copy(input.toPath(), JarFile.MANIFEST_NAME::equals);
+				}
+
+				//Kept in the same order as the targets, so the classes are written the same way whichever finishes first
+				Map<String, Future<byte[]>> results = new LinkedHashMap<>();
+
+				try (ZipFile zip = new ZipFile(input)) {
+					for (Map.Entry<String, List<ClassProcessor>> target : targets.entrySet()) {
+						ZipEntry entry = zip.getEntry(target.getKey() + ".class");
+
+						if (entry == null) {
+							continue;
+						}
+
+						byte[] data;
+
+						try (InputStream in = zip.getInputStream(entry)) {
+							data = IOUtils.toByteArray(in);
+						}
+
+						results.put(entry.getName(), executor.submit(() -> processClass(target.getKey(), target.getValue(), data, previous, fingerprints)));
+					}
+				}
+
+				for (Map.Entry<String, Future<byte[]>> result : results.entrySet()) {
+					byte[] data;
+
+					try {
+						data = result.getValue().get();
+					} catch (ExecutionException e) {
+						throw new RuntimeException("Failed to process " + result.getKey(), e.getCause());
+					}
+
+					if (data != null) {
+						writer.write(result.getKey(), data);
+					} else {
+						reused.add(result.getKey());
+					}
+				}
+
+				if (!reused.isEmpty()) {
+					logger.lifecycle(":reused {} of {} processed classes", reused.size(), targets.size());
+					writer.copy(output.toPath(), reused::contains);
+				}
+
+				for (ClassProcessor processor : processors) {
+					for (Map.Entry<String, byte[]> entry : processor.getExtraEntries().entrySet()) {
+						writer.write(entry.getKey(), entry.getValue());
+					}
+				}
+
+				writer.write(FINGERPRINTS, writeFingerprints(inputHash, new TreeMap<>(fingerprints)));
+
+				if (!overlay) {
+					//Anything already written is skipped, including old copies of the extra entries
+					writer.copy(input.toPath(), name -> true);
+				}
+
+				writer.finish();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted processing " + input, e);
+			} finally {
+				executor.shutdownNow();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to process " + input, e);
+		}
+
+		for (ClassProcessor processor : processors) {
+			processor.finish(annotationProcessorJar);
+		}
+	}
+
+	/**
+	 * Pass a class through each of the given processors in turn.
+	 *
+	 * @return The processed class, or {@code null} if the class is unchanged from the previous output
+	 */
+	private static byte[] processClass(String className, List<ClassProcessor> chain, byte[] data, Map<String, String> previous, Map<String, String> fingerprints) {
+		ClassReader reader = new ClassReader(data);
+		String fingerprint = fingerprint(className, chain, reader);
+
+		if (fingerprint != null) {
+			fingerprints.put(className, fingerprint);
+
+			if (previous != null && fingerprint.equals(previous.get(className))) {
+				return null;
+			}
+		}
+
+		ClassWriter classWriter = new ClassWriter(0);
+		ClassVisitor visitor = classWriter;
+
+		for (int i = chain.size() - 1; i >= 0; i--) {
+			visitor = chain.get(i).createVisitor(className, visitor);
+		}
+
+		reader.accept(visitor, 0);
+		return classWriter.toByteArray();
+	}
+
+	/**
+	 * Fingerprint everything the given processors would do to a class.
+	 *
+	 * @return The fingerprint, or {@code null} if any of the processors can't fingerprint the class
+	 */
+	private static String fingerprint(String className, List<ClassProcessor> chain, ClassReader reader) {
+		Hasher hasher = Hashing.sha256().newHasher();
+
+		for (ClassProcessor processor : chain) {
+			hasher.putString(processor.getClass().getName(), StandardCharsets.UTF_8);
+
+			if (!processor.fingerprint(className, reader, hasher)) {
+				return null;
+			}
 		}
+
+		return hasher.hash().toString();
+	}
+
+	private static Map<String, String> readFingerprints(File jar, String inputHash) {
+		if (!jar.isFile()) {
+			return null;
+		}
+
+		try (ZipFile zip = new ZipFile(jar)) {
+			ZipEntry entry = zip.getEntry(FINGERPRINTS);
+
+			if (entry == null) {
+				return null;
+			}
+
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8))) {
+				if (!(FINGERPRINTS_VERSION + "\t" + inputHash).equals(reader.readLine())) {
+					return null;
+				}
+
+				Map<String, String> fingerprints = new HashMap<>();
+
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					int split = line.indexOf('\t');
+
+					if (split > 0) {
+						fingerprints.put(line.substring(0, split), line.substring(split + 1));
+					}
+				}
+
+				return fingerprints;
+			}
+		} catch (IOException e) {
+			//Just means everything is processed again
+			return null;
+		}
+	}
+
+	private static byte[] writeFingerprints(String inputHash, Map<String, String> fingerprints) {
+		StringBuilder out = new StringBuilder().append(FINGERPRINTS_VERSION).append('\t').append(inputHash).append('\n');
+
+		for (Map.Entry<String, String> entry : fingerprints.entrySet()) {
+			out.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+		}
+
+		return out.toString().getBytes(StandardCharsets.UTF_8);
 	}
 
 	public <T extends JarProcessor> T getByType(Class<T> tClass) {
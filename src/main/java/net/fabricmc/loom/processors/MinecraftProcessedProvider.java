@@ -27,6 +27,7 @@ package net.fabricmc.loom.processors;
 import java.io.File;
 import java.io.IOException;
 import java.util.function.Consumer;
+import java.util.jar.JarFile;
 
 import org.apache.commons.io.FileUtils;
 import org.gradle.api.Project;
@@ -36,11 +37,13 @@ import net.fabricmc.loom.providers.MappingsProvider;
 import net.fabricmc.loom.providers.MinecraftMappedProvider;
 import net.fabricmc.loom.providers.MinecraftProvider;
 import net.fabricmc.loom.util.Constants;
+import net.fabricmc.loom.util.zip.ZipWriter;
 
 public class MinecraftProcessedProvider extends MinecraftMappedProvider {
 	public static final String PROJECT_MAPPED_CLASSIFIER = "projectmapped";
 
 	private File projectMappedJar;
+	private File projectOverlayJar;
 	private File projectAnnotationProcessorJar;
 
 	private final JarProcessorManager jarProcessorManager;
@@ -52,23 +55,33 @@ public class MinecraftProcessedProvider extends MinecraftMappedProvider {
 
 	@Override
 	protected void addDependencies(DependencyInfo dependency, Consumer<Runnable> postPopulationScheduler) {
-		if (jarProcessorManager.isInvalid(projectMappedJar)) {
-			getProject().getLogger().lifecycle(":processing mapped jar");
-			invalidateJars();
-
-			try {
-				FileUtils.copyFile(super.getMappedJar(), projectMappedJar);
-			} catch (IOException e) {
-				throw new RuntimeException("Failed to copy source jar", e);
+		if (useOverlay()) {
+			if (jarProcessorManager.isInvalid(projectOverlayJar)) {
+				getProject().getLogger().lifecycle(":processing mapped jar overlay");
+				projectOverlayJar.getParentFile().mkdirs();
+				jarProcessorManager.processOverlay(super.getMappedJar(), projectOverlayJar, projectAnnotationProcessorJar);
+				//Only rebuilt when something needs the whole jar
+				projectMappedJar.delete();
 			}
 
-			jarProcessorManager.process(projectMappedJar, projectAnnotationProcessorJar);
-		}
+			//Has to come before the shared jar so the processed classes are the ones which get used, the shared jar still
+			//has its own copies of them as it can't be changed per project, hence the mode is off unless asked for
+			getProject().getDependencies().add(Constants.MINECRAFT_NAMED, getProject().files(projectOverlayJar));
+			super.addDependencies(dependency, postPopulationScheduler);
+		} else {
+			if (jarProcessorManager.isInvalid(projectMappedJar)) {
+				getProject().getLogger().lifecycle(":processing mapped jar");
+				invalidateJars();
+
+				projectMappedJar.getParentFile().mkdirs();
+				jarProcessorManager.process(super.getMappedJar(), projectMappedJar, projectAnnotationProcessorJar);
+			}
 
-		getProject().getRepositories().flatDir(repository -> repository.dir(getJarDirectory(getExtension().getProjectPersistentCache(), PROJECT_MAPPED_CLASSIFIER)));
+			getProject().getRepositories().flatDir(repository -> repository.dir(getJarDirectory(getExtension().getProjectPersistentCache(), PROJECT_MAPPED_CLASSIFIER)));
 
-		getProject().getDependencies().add(Constants.MINECRAFT_NAMED,
-				getProject().getDependencies().module("net.minecraft:minecraft:" + getJarVersionString(PROJECT_MAPPED_CLASSIFIER)));
+			getProject().getDependencies().add(Constants.MINECRAFT_NAMED,
+					getProject().getDependencies().module("net.minecraft:minecraft:" + getJarVersionString(PROJECT_MAPPED_CLASSIFIER)));
+		}
 
 		if (projectAnnotationProcessorJar.exists()) {
 			getProject().afterEvaluate($ -> $.afterEvaluate(project -> {
@@ -77,6 +90,27 @@ public class MinecraftProcessedProvider extends MinecraftMappedProvider {
 		}
 	}
 
+	private boolean useOverlay() {
+		return getExtension().overlayProcessedJar && jarProcessorManager.canOverlay();
+	}
+
+	/**
+	 * Put the overlay and the shared mapped jar back together, for anything which needs the whole processed jar.
+	 */
+	private void materialiseMappedJar() {
+		getProject().getLogger().lifecycle(":building processed jar from overlay");
+
+		try (ZipWriter writer = new ZipWriter(projectMappedJar.toPath())) {
+			//Kept at the front, where JarInputStream expects it
+			writer.copy(super.getMappedJar().toPath(), JarFile.MANIFEST_NAME::equals);
+			writer.copy(projectOverlayJar.toPath(), name -> true);
+			writer.copy(super.getMappedJar().toPath(), name -> true);
+			writer.finish();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to build processed jar from " + projectOverlayJar, e);
+		}
+	}
+
 	private void invalidateJars() {
 		File dir = getJarDirectory(getExtension().getUserCache(), PROJECT_MAPPED_CLASSIFIER);
 
@@ -96,11 +130,16 @@ public class MinecraftProcessedProvider extends MinecraftMappedProvider {
 		super.initFiles(minecraftProvider, mappingsProvider);
 
 		projectMappedJar = new File(getJarDirectory(getExtension().getProjectPersistentCache(), PROJECT_MAPPED_CLASSIFIER), "minecraft-" + getJarVersionString(PROJECT_MAPPED_CLASSIFIER) + ".jar");
+		projectOverlayJar = new File(getJarDirectory(getExtension().getProjectPersistentCache(), PROJECT_MAPPED_CLASSIFIER), "minecraft-" + getJarVersionString(PROJECT_MAPPED_CLASSIFIER) + "-overlay.jar");
 		projectAnnotationProcessorJar = new File(getJarDirectory(getExtension().getProjectPersistentCache(), PROJECT_MAPPED_CLASSIFIER), "minecraft-" + getJarVersionString(PROJECT_MAPPED_CLASSIFIER) + "-compileOnly.jar");
 	}
 
 	@Override
 	public File getMappedJar() {
+		if (useOverlay() && !projectMappedJar.exists() && projectOverlayJar.exists()) {
+			materialiseMappedJar();
+		}
+
 		return projectMappedJar;
 	}
 }
@@ -33,6 +33,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import net.fabricmc.loom.util.StaticPathWatcher;
+import net.fabricmc.loom.util.mappings.CompactMappings;
 import net.fabricmc.mapping.tree.TinyMappingFactory;
 import net.fabricmc.mapping.tree.TinyTree;
 
@@ -40,6 +41,8 @@ public final class MappingsCache {
 	public static final MappingsCache INSTANCE = new MappingsCache();
 
 	private final Map<Path, SoftReference<TinyTree>> mappingsCache = new HashMap<>();
+	//Memory mapped so they barely take up any heap, no need to let them be collected
+	private final Map<Path, CompactMappings> compactCache = new HashMap<>();
 
 	//TODO: loom doesn't actually use new mappings when the mappings change until the gradle daemons are stopped
 	public TinyTree get(Path mappingsPath) throws IOException {
@@ -62,4 +65,21 @@ public final class MappingsCache {
 			}
 		}
 	}
+
+	/**
+	 * Get the compact form of the given tiny mappings, writing it first if it is missing or out of date.
+	 */
+	public synchronized CompactMappings getCompact(Path mappingsPath) throws IOException {
+		mappingsPath = mappingsPath.toAbsolutePath();
+		CompactMappings mappings = compactCache.get(mappingsPath);
+
+		if (mappings == null || !mappings.isFrom(mappingsPath)) {
+			//Never closed, as other holders in the daemon may still be reading the old mappings. The new ones are written
+			//to a different file, so the old mapping is released whenever the garbage collector gets to it
+			mappings = CompactMappings.load(mappingsPath);
+			compactCache.put(mappingsPath, mappings);
+		}
+
+		return mappings;
+	}
 }
@@ -25,6 +25,7 @@
 package net.fabricmc.loom.providers;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
@@ -32,7 +33,6 @@ import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.function.Consumer;
 
@@ -47,12 +47,12 @@ import org.zeroturnaround.zip.ZipUtil;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.DependencyProvider;
 import net.fabricmc.loom.util.DownloadUtil;
+import net.fabricmc.loom.util.mappings.CompactMappings;
+import net.fabricmc.loom.util.mappings.TinyV2Mappings;
 import net.fabricmc.mapping.reader.v2.TinyV2Factory;
 import net.fabricmc.mapping.tree.TinyTree;
 import net.fabricmc.stitch.Command;
 import net.fabricmc.stitch.commands.CommandProposeFieldNames;
-import net.fabricmc.stitch.commands.tinyv2.CommandMergeTinyV2;
-import net.fabricmc.stitch.commands.tinyv2.CommandReorderTinyV2;
 import net.fabricmc.loom.processors.JarProcessorManager;
 import net.fabricmc.loom.processors.MinecraftProcessedProvider;
 import net.fabricmc.loom.util.DeletingFileVisitor;
@@ -85,6 +85,10 @@ public class MappingsProvider extends DependencyProvider {
 		return MappingsCache.INSTANCE.get(tinyMappings.toPath());
 	}
 
+	public CompactMappings getCompactMappings() throws IOException {
+		return MappingsCache.INSTANCE.getCompact(tinyMappings.toPath());
+	}
+
 	@Override
 	public void provide(DependencyInfo dependency, Consumer<Runnable> postPopulationScheduler) throws Exception {
 		MinecraftProvider minecraftProvider = getDependencyManager().getProvider(MinecraftProvider.class);
@@ -130,6 +134,9 @@ public class MappingsProvider extends DependencyProvider {
 			storeMappings(getProject(), minecraftProvider, mappingsJar.toPath());
 		}
 
+		//Written next to the tiny file for everything which only needs to look names up
+		getCompactMappings();
+
 		if (!tinyMappingsJar.exists()) {
 			ZipUtil.pack(new ZipEntrySource[] {new FileSource("mappings/mappings.tiny", tinyMappings)}, tinyMappingsJar);
 		}
@@ -204,47 +211,44 @@ public class MappingsProvider extends DependencyProvider {
 	}
 
 	private void mergeAndSaveMappings(Project project, Path unmergedIntermediaryJar, Path unmergedYarnJar) throws IOException {
-		Path unmergedIntermediary = Paths.get(mappingsStepsDir.toString(), "unmerged-intermediary.tiny");
-		project.getLogger().info(":extracting " + unmergedIntermediaryJar.getFileName());
+		long start = System.nanoTime();
+		TinyV2Mappings intermediary = readMappings(project, unmergedIntermediaryJar);
+		TinyV2Mappings yarn = readMappings(project, unmergedYarnJar);
+		long read = System.nanoTime();
 
-		try (FileSystem unmergedIntermediaryFs = FileSystems.newFileSystem(unmergedIntermediaryJar, (ClassLoader) null)) {
-			extractMappings(unmergedIntermediaryFs, unmergedIntermediary);
+		project.getLogger().info(":merging");
+		TinyV2Mappings merged;
+
+		try {
+			merged = TinyV2Mappings.merge(intermediary.reorder("intermediary", "official"), yarn).reorder("official", "intermediary", "named");
+		} catch (RuntimeException e) {
+			throw new RuntimeException("Could not merge mappings from " + unmergedIntermediaryJar + " with mappings from " + unmergedYarnJar, e);
 		}
 
-		Path unmergedYarn = Paths.get(mappingsStepsDir.toString(), "unmerged-yarn.tiny");
-		project.getLogger().info(":extracting " + unmergedYarnJar.getFileName());
+		long merge = System.nanoTime();
+		Path output = tinyMappings.toPath();
+		Path temp = Files.createTempFile(mappingsDir, output.getFileName().toString(), ".tmp");
 
-		try (FileSystem unmergedYarnJarFs = FileSystems.newFileSystem(unmergedYarnJar, (ClassLoader) null)) {
-			extractMappings(unmergedYarnJarFs, unmergedYarn);
+		try (BufferedWriter writer = Files.newBufferedWriter(temp)) {
+			merged.write(writer);
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
 		}
 
-		Path invertedIntermediary = Paths.get(mappingsStepsDir.toString(), "inverted-intermediary.tiny");
-		reorderMappings(unmergedIntermediary, invertedIntermediary, "intermediary", "official");
-		Path unorderedMergedMappings = Paths.get(mappingsStepsDir.toString(), "unordered-merged.tiny");
-		project.getLogger().info(":merging");
-		mergeMappings(invertedIntermediary, unmergedYarn, unorderedMergedMappings);
-		reorderMappings(unorderedMergedMappings, tinyMappings.toPath(), "official", "intermediary", "named");
-	}
+		Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		long write = System.nanoTime();
 
-	private void reorderMappings(Path oldMappings, Path newMappings, String... newOrder) {
-		Command command = new CommandReorderTinyV2();
-		String[] args = new String[2 + newOrder.length];
-		args[0] = oldMappings.toAbsolutePath().toString();
-		args[1] = newMappings.toAbsolutePath().toString();
-		System.arraycopy(newOrder, 0, args, 2, newOrder.length);
-		runCommand(command, args);
+		project.getLogger().lifecycle(":merged mappings in {}ms (read {}ms, merge {}ms, write {}ms)", (write - start) / 1_000_000,
+						(read - start) / 1_000_000, (merge - read) / 1_000_000, (write - merge) / 1_000_000);
 	}
 
-	private void mergeMappings(Path intermediaryMappings, Path yarnMappings, Path newMergedMappings) {
-		try {
-			Command command = new CommandMergeTinyV2();
-			runCommand(command, intermediaryMappings.toAbsolutePath().toString(),
-							yarnMappings.toAbsolutePath().toString(),
-							newMergedMappings.toAbsolutePath().toString(),
-							"intermediary", "official");
-		} catch (Exception e) {
-			throw new RuntimeException("Could not merge mappings from " + intermediaryMappings.toString()
-							+ " with mappings from " + yarnMappings, e);
+	private static TinyV2Mappings readMappings(Project project, Path jar) throws IOException {
+		project.getLogger().info(":reading " + jar.getFileName());
+
+		try (FileSystem fs = FileSystems.newFileSystem(jar, (ClassLoader) null);
+				BufferedReader reader = Files.newBufferedReader(fs.getPath("mappings", "mappings.tiny"))) {
+			return TinyV2Mappings.read(reader);
 		}
 	}
 
@@ -28,25 +28,22 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.URL;
-import java.util.Deque;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
 import com.google.gson.Gson;
 import org.gradle.api.GradleException;
 import org.gradle.api.Project;
 
 import net.fabricmc.loom.LoomGradleExtension;
-import net.fabricmc.loom.util.Checksum;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.DownloadUtil;
+import net.fabricmc.loom.util.HashingService;
 import net.fabricmc.loom.util.MinecraftVersionInfo;
+import net.fabricmc.loom.util.assets.AssetDownloader;
 import net.fabricmc.loom.util.assets.AssetIndex;
 import net.fabricmc.loom.util.assets.AssetObject;
-import net.fabricmc.loom.util.progress.ProgressLogger;
+import net.fabricmc.loom.util.assets.AssetVerificationIndex;
 
 public class MinecraftAssetsProvider {
 	public static void provide(MinecraftProvider minecraftProvider, Project project) throws IOException {
@@ -65,7 +62,7 @@ public class MinecraftAssetsProvider {
 
 		File assetsInfo = new File(assets, "indexes" + File.separator + assetIndex.getFabricId(minecraftProvider.getMinecraftVersion()) + ".json");
 
-		if (!assetsInfo.exists() || !Checksum.equals(assetsInfo, assetIndex.sha1)) {
+		if (!HashingService.INSTANCE.matchesSha1(assetsInfo, assetIndex.sha1)) {
 			project.getLogger().lifecycle(":downloading asset index");
 
 			if (offline) {
@@ -83,15 +80,15 @@ public class MinecraftAssetsProvider {
 
 		project.getLogger().lifecycle(":downloading assets...");
 
-		Deque<ProgressLogger> loggers = new ConcurrentLinkedDeque<>();
-		ExecutorService executor = Executors.newFixedThreadPool(Math.min(10, Math.max(Runtime.getRuntime().availableProcessors() / 2, 1)));
-
 		AssetIndex index;
 
 		try (FileReader fileReader = new FileReader(assetsInfo)) {
 			index = new Gson().fromJson(fileReader, AssetIndex.class);
 		}
 
+		AssetVerificationIndex verified = AssetVerificationIndex.load(new File(assets, "objects-verified.bin"), extension.paranoidAssetVerification, project.getLogger());
+		AssetDownloader downloader = new AssetDownloader(project, extension.assetDownloadThreads);
+		Map<File, String> downloading = new HashMap<>();
 		Map<String, AssetObject> parent = index.getFileMap();
 
 		for (Map.Entry<String, AssetObject> entry : parent.entrySet()) {
@@ -100,7 +97,7 @@ public class MinecraftAssetsProvider {
 			String filename = "objects" + File.separator + sha1.substring(0, 2) + File.separator + sha1;
 			File file = new File(assets, filename);
 
-			if (!file.exists() || !Checksum.equals(file, sha1)) {
+			if (!verified.isValid(file, sha1)) {
 				if (offline) {
 					if (file.exists()) {
 						project.getLogger().warn("Outdated asset " + entry.getKey());
@@ -108,52 +105,23 @@ public class MinecraftAssetsProvider {
 						throw new GradleException("Asset " + entry.getKey() + " not found at " + file.getAbsolutePath());
 					}
 				} else {
-					executor.execute(() -> {
-						ProgressLogger progressLogger;
-
-						if (loggers.isEmpty()) {
-							//Create a new logger if we need one
-							progressLogger = ProgressLogger.getProgressFactory(project, MinecraftAssetsProvider.class.getName());
-							progressLogger.start("Downloading assets...", "assets");
-						} else {
-							// use a free logger if we can
-							progressLogger = loggers.pop();
-						}
-
-						String assetName = entry.getKey();
-						int end = assetName.lastIndexOf("/") + 1;
-
-						if (end > 0) {
-							assetName = assetName.substring(end);
-						}
-
-						project.getLogger().debug(":downloading asset " + assetName);
-						progressLogger.progress(String.format("%-30.30s", assetName) + " - " + sha1);
-
-						try {
-							DownloadUtil.downloadIfChanged(new URL(Constants.RESOURCES_BASE + sha1.substring(0, 2) + "/" + sha1), file, project.getLogger(), true);
-						} catch (IOException e) {
-							throw new RuntimeException("Failed to download: " + assetName, e);
-						}
-
-						//Give this logger back
-						loggers.add(progressLogger);
-					});
+					downloader.queue(entry.getKey(), new URL(Constants.RESOURCES_BASE + sha1.substring(0, 2) + "/" + sha1), file, object.getSize());
+					downloading.put(file, sha1);
 				}
 			}
 		}
 
-		//Wait for the assets to all download
-		executor.shutdown();
-
 		try {
-			if (executor.awaitTermination(2, TimeUnit.HOURS)) {
-				executor.shutdownNow();
+			downloader.downloadAll();
+
+			//Hashing what was just downloaded also records it for next time
+			for (Map.Entry<File, String> entry : downloading.entrySet()) {
+				if (!verified.isValid(entry.getKey(), entry.getValue())) {
+					throw new GradleException("Downloaded asset " + entry.getKey().getAbsolutePath() + " does not match its hash " + entry.getValue());
+				}
 			}
-		} catch (InterruptedException e) {
-			throw new RuntimeException(e);
+		} finally {
+			verified.save();
 		}
-
-		loggers.forEach(ProgressLogger::completed);
 	}
 }
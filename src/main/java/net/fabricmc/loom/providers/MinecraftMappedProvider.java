@@ -27,17 +27,21 @@ package net.fabricmc.loom.providers;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.function.Consumer;
 
 import org.gradle.api.Project;
 
 import net.fabricmc.loom.util.TinyRemapperMappingsHelper;
-import net.fabricmc.tinyremapper.OutputConsumerPath;
+import net.fabricmc.loom.util.mappings.CompactMappings;
+import net.fabricmc.loom.util.remapping.ClassIndex;
+import net.fabricmc.loom.util.remapping.ClasspathStubs;
+import net.fabricmc.loom.util.remapping.IncrementalJarRemapper;
+import net.fabricmc.loom.util.remapping.MappingFingerprinter;
 import net.fabricmc.tinyremapper.TinyRemapper;
 import net.fabricmc.loom.util.Constants;
 import net.fabricmc.loom.util.DependencyProvider;
+import net.fabricmc.mapping.tree.TinyTree;
 
 public class MinecraftMappedProvider extends DependencyProvider {
 	private File minecraftMappedJar;
@@ -89,44 +93,67 @@ public class MinecraftMappedProvider extends DependencyProvider {
 	}
 
 	private void mapMinecraftJar() throws IOException {
-		String fromM = "official";
-
 		MappingsProvider mappingsProvider = getExtension().getMappingsProvider();
+		CompactMappings mappings = mappingsProvider.getCompactMappings();
 
 		Path input = minecraftProvider.getMergedJar().toPath();
-		Path outputMapped = minecraftMappedJar.toPath();
-		Path outputIntermediary = minecraftIntermediaryJar.toPath();
+		Path[] classpath = getRemapClasspath();
+		//Only needs reading once for both namespaces, as nothing in it depends on the mappings
+		ClassIndex index = getExtension().incrementalMinecraftRemap ? ClassIndex.read(input) : null;
+		TinyTree tree = index != null ? mappingsProvider.getMappings() : null;
+
+		//One after the other, as each remapper holds the whole jar and classpath so running both at once doubles the peak heap
+		try {
+			mapMinecraftJar(mappings, tree, index, input, minecraftMappedJar.toPath(), classpath, "named");
+			mapMinecraftJar(mappings, tree, index, input, minecraftIntermediaryJar.toPath(), classpath, "intermediary");
+		} catch (IOException | RuntimeException e) {
+			throw new RuntimeException("Failed to remap JAR " + input + " with mappings from " + mappingsProvider.tinyMappings, e);
+		}
+	}
+
+	private void mapMinecraftJar(CompactMappings mappings, TinyTree tree, ClassIndex index, Path input, Path output, Path[] classpath, String toM) throws IOException {
+		String fromM = "official";
 
-		for (String toM : Arrays.asList("named", "intermediary")) {
-			Path output = "named".equals(toM) ? outputMapped : outputIntermediary;
+		getProject().getLogger().lifecycle(":remapping minecraft (TinyRemapper, " + fromM + " -> " + toM + ")");
 
-			getProject().getLogger().lifecycle(":remapping minecraft (TinyRemapper, " + fromM + " -> " + toM + ")");
+		TinyRemapper remapper = getTinyRemapper(mappings, fromM, toM);
+		MappingFingerprinter fingerprinter = null;
 
-			TinyRemapper remapper = getTinyRemapper(fromM, toM);
+		if (index != null) {
+			fingerprinter = MappingFingerprinter.create(index, tree, fromM, toM, true);
 
-			try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(output).build()) {
-				outputConsumer.addNonClassFiles(input);
-				remapper.readClassPath(getRemapClasspath());
-				remapper.readInputs(input);
-				remapper.apply(outputConsumer);
-			} catch (Exception e) {
-				throw new RuntimeException("Failed to remap JAR " + input + " with mappings from " + mappingsProvider.tinyMappings, e);
-			} finally {
-				remapper.finish();
+			if (fingerprinter == null) {
+				getProject().getLogger().warn("Mappings have no intermediary names, unable to remap minecraft incrementally");
 			}
 		}
+
+		try {
+			if (fingerprinter != null) {
+				MappingsProvider mappingsProvider = getExtension().getMappingsProvider();
+				File state = new File(getExtension().getUserCache(), "minecraft-" + minecraftProvider.getMinecraftVersion() + "-" + toM + "-" + mappingsProvider.mappingsName + ".remap");
+				new IncrementalJarRemapper(getProject().getLogger(), state, fromM + " -> " + toM).remap(index, fingerprinter, remapper, input, output, classpath);
+			} else {
+				IncrementalJarRemapper.remapAll(remapper, input, output, classpath);
+			}
+		} finally {
+			remapper.finish();
+		}
 	}
 
 	public TinyRemapper getTinyRemapper(String fromM, String toM) throws IOException {
+		return getTinyRemapper(getExtension().getMappingsProvider().getCompactMappings(), fromM, toM);
+	}
+
+	private TinyRemapper getTinyRemapper(CompactMappings mappings, String fromM, String toM) {
 		return TinyRemapper.newRemapper()
-				.withMappings(TinyRemapperMappingsHelper.create(getExtension().getMappingsProvider().getMappings(), fromM, toM, true))
+				.withMappings(TinyRemapperMappingsHelper.create(mappings, fromM, toM, true))
 				.renameInvalidLocals(true)
 				.rebuildSourceFilenames(true)
 				.build();
 	}
 
-	public Path[] getRemapClasspath() {
-		return getMapperPaths().stream().map(File::toPath).toArray(Path[]::new);
+	public Path[] getRemapClasspath() throws IOException {
+		return ClasspathStubs.INSTANCE.get(getExtension().getUserCache(), getMapperPaths().stream().map(File::toPath).toArray(Path[]::new));
 	}
 
 	protected void addDependencies(DependencyInfo dependency, Consumer<Runnable> postPopulationScheduler) {
@@ -32,6 +32,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.zip.ZipError;
+import java.util.zip.ZipException;
 
 import com.google.common.io.Files;
 import com.google.gson.Gson;
@@ -45,8 +46,8 @@ import net.fabricmc.loom.util.DependencyProvider;
 import net.fabricmc.loom.util.DownloadUtil;
 import net.fabricmc.loom.util.ManifestVersion;
 import net.fabricmc.loom.util.MinecraftVersionInfo;
+import net.fabricmc.loom.util.ParallelJarMerger;
 import net.fabricmc.loom.util.StaticPathWatcher;
-import net.fabricmc.stitch.merge.JarMerger;
 
 public class MinecraftProvider extends DependencyProvider {
 	private String minecraftVersion;
@@ -100,11 +101,11 @@ public class MinecraftProvider extends DependencyProvider {
 		if (!minecraftMergedJar.exists()) {
 			try {
 				mergeJars(getProject().getLogger());
-			} catch (ZipError e) {
+			} catch (ZipError | ZipException e) {
 				DownloadUtil.delete(minecraftClientJar);
 				DownloadUtil.delete(minecraftServerJar);
 
-				getProject().getLogger().error("Could not merge JARs! Deleting source JARs - please re-run the command and move on.", e);
+				getProject().getLogger().error("Could not merge " + minecraftClientJar.getName() + " and " + minecraftServerJar.getName() + "! Deleting source JARs - please re-run the command and move on.", e);
 				throw new RuntimeException();
 			}
 		}
@@ -178,10 +179,9 @@ public class MinecraftProvider extends DependencyProvider {
 	private void mergeJars(Logger logger) throws IOException {
 		logger.lifecycle(":merging jars");
 
-		try (JarMerger jarMerger = new JarMerger(minecraftClientJar, minecraftServerJar, minecraftMergedJar)) {
-			jarMerger.enableSyntheticParamsOffset();
-			jarMerger.merge();
-		}
+		ParallelJarMerger jarMerger = new ParallelJarMerger(minecraftClientJar, minecraftServerJar, minecraftMergedJar);
+		jarMerger.enableSyntheticParamsOffset();
+		jarMerger.merge();
 	}
 
 	public File getMergedJar() {
@@ -39,6 +39,7 @@ import org.gradle.api.tasks.TaskAction;
 import net.fabricmc.loom.LoomGradlePlugin;
 import net.fabricmc.loom.api.decompilers.DecompilationMetadata;
 import net.fabricmc.loom.api.decompilers.LoomDecompiler;
+import net.fabricmc.loom.util.HashingService;
 import net.fabricmc.loom.util.LineNumberRemapper;
 import net.fabricmc.loom.util.progress.ProgressLogger;
 import net.fabricmc.stitch.util.StitchUtil;
@@ -82,6 +83,7 @@ public class GenerateSourcesTask extends AbstractLoomTask {
 			}
 
 			Files.copy(linemappedJarDestination, compiledJar, StandardCopyOption.REPLACE_EXISTING);
+			HashingService.INSTANCE.invalidate(compiledJar.toFile());
 			Files.delete(linemappedJarDestination);
 		}
 	}
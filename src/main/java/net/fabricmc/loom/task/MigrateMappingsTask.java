@@ -27,16 +27,36 @@ package net.fabricmc.loom.task;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.io.MappingFormats;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
 import org.cadixdev.mercury.Mercury;
 import org.cadixdev.mercury.remapper.MercuryRemapper;
 import org.gradle.api.GradleException;
@@ -46,14 +66,22 @@ import org.gradle.api.tasks.TaskAction;
 import org.gradle.api.tasks.options.Option;
 
 import net.fabricmc.loom.LoomGradleExtension;
-import net.fabricmc.loom.providers.MappingsProvider;
 import net.fabricmc.loom.providers.MinecraftMappedProvider;
+import net.fabricmc.loom.util.CacheSweeper;
+import net.fabricmc.loom.util.DeletingFileVisitor;
+import net.fabricmc.loom.util.HashingService;
 import net.fabricmc.loom.util.SourceRemapper;
+import net.fabricmc.loom.util.progress.ProgressLogger;
 import net.fabricmc.lorenztiny.TinyMappingsJoiner;
 import net.fabricmc.mapping.tree.TinyMappingFactory;
 import net.fabricmc.mapping.tree.TinyTree;
 
 public class MigrateMappingsTask extends AbstractLoomTask {
+	//The most files Mercury is given at once, to bound how many parsed compilation units are held in memory
+	private static final int BATCH_SIZE = 250;
+	//Not measured, only an estimate of a worker's batch and the source files it looks up on top of the Minecraft classpath
+	private static final long WORKER_MEMORY = 768L * 1024 * 1024;
+
 	private Path inputDir;
 	private Path outputDir;
 	private String mappings;
@@ -92,12 +120,10 @@ public class MigrateMappingsTask extends AbstractLoomTask {
 		Files.createDirectories(outputDir);
 
 		File mappings = loadMappings();
-		MappingsProvider mappingsProvider = extension.getMappingsProvider();
 
 		try {
-			TinyTree currentMappings = mappingsProvider.getMappings();
-			TinyTree targetMappings = getMappings(mappings);
-			migrateMappings(project, extension.getMinecraftMappedProvider(), inputDir, outputDir, currentMappings, targetMappings);
+			Path joinedMappings = getJoinedMappings(project, extension, mappings);
+			migrateMappings(project, extension.getMinecraftMappedProvider(), inputDir, outputDir, joinedMappings);
 			project.getLogger().lifecycle(":remapped project written to " + outputDir.toAbsolutePath());
 		} catch (IOException e) {
 			throw new IllegalArgumentException("Error while loading mappings", e);
@@ -133,44 +159,336 @@ public class MigrateMappingsTask extends AbstractLoomTask {
 		return Iterables.getOnlyElement(files);
 	}
 
-	private static TinyTree getMappings(File mappings) throws IOException {
-		Path temp = Files.createTempFile("mappings", ".tiny");
+	/**
+	 * Get the current mappings joined to the given target mappings, which are kept in the user cache against the hashes
+	 * of both so migrating again between the same mappings, or from another project on the same ones, skips joining them.
+	 */
+	private static Path getJoinedMappings(Project project, LoomGradleExtension extension, File targetMappings) throws IOException {
+		File cacheDir = new File(extension.getUserCache(), "migrated_mappings");
+		cacheDir.mkdirs();
+		CacheSweeper.sweep(cacheDir.toPath());
+
+		HashingService hashing = HashingService.INSTANCE;
+		String current = HashingService.toHex(hashing.sha1(extension.getMappingsProvider().tinyMappings));
+		String target = HashingService.toHex(hashing.sha1(targetMappings));
+		Path joined = new File(cacheDir, current + "-" + target + ".srg").toPath();
+
+		if (Files.exists(joined)) {
+			project.getLogger().lifecycle(":using cached joined mappings");
+			CacheSweeper.markUsed(joined);
+			return joined;
+		}
+
+		project.getLogger().lifecycle(":joining mappings");
+		TinyTree currentTree = extension.getMappingsProvider().getMappings();
+		TinyTree targetTree = readMappings(targetMappings);
+
+		MappingSet mappingSet = new TinyMappingsJoiner(
+				currentTree, "named",
+				targetTree, "named",
+				"intermediary"
+		).read();
+
+		Path temp = Files.createTempFile(cacheDir.toPath(), joined.getFileName().toString(), ".tmp");
 
-		try (FileSystem fileSystem = FileSystems.newFileSystem(mappings.toPath(), (ClassLoader) null)) {
-			Files.copy(fileSystem.getPath("mappings/mappings.tiny"), temp, StandardCopyOption.REPLACE_EXISTING);
+		try {
+			MappingFormats.SRG.write(mappingSet, temp);
+			Files.move(temp, joined, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
 		}
 
-		try (BufferedReader reader = Files.newBufferedReader(temp)) {
+		return joined;
+	}
+
+	/**
+	 * Read the tiny file straight out of the given mappings jar. It is only needed to join against once, so it is neither
+	 * extracted nor kept in {@link net.fabricmc.loom.providers.MappingsCache} for the rest of the daemon's life.
+	 */
+	private static TinyTree readMappings(File mappings) throws IOException {
+		try (FileSystem fileSystem = FileSystems.newFileSystem(mappings.toPath(), (ClassLoader) null);
+				BufferedReader reader = Files.newBufferedReader(fileSystem.getPath("mappings/mappings.tiny"))) {
 			return TinyMappingFactory.loadWithDetection(reader);
 		}
 	}
 
 	private static void migrateMappings(Project project, MinecraftMappedProvider minecraftMappedProvider,
-										Path inputDir, Path outputDir, TinyTree currentMappings, TinyTree targetMappings
+										Path inputDir, Path outputDir, Path joinedMappings
 	) throws IOException {
-		project.getLogger().lifecycle(":joining mappings");
+		project.getLogger().lifecycle(":finding changed names");
+		Set<String> changedNames = collectChangedNames(MappingFormats.SRG.read(joinedMappings));
+		List<Path> javaFiles;
 
-		MappingSet mappingSet = new TinyMappingsJoiner(
-				currentMappings, "named",
-				targetMappings, "named",
-				"intermediary"
-		).read();
+		try (Stream<Path> files = Files.walk(inputDir)) {
+			javaFiles = files.filter(file -> Files.isRegularFile(file) && file.getFileName().toString().endsWith(".java")).sorted().collect(Collectors.toList());
+		}
+
+		List<Path> affected = new ArrayList<>();
+		int unchanged = 0;
+
+		for (Path file : javaFiles) {
+			if (referencesAny(file, changedNames)) {
+				affected.add(file);
+			} else {
+				//Nothing in the file is named differently, so Mercury would only write it out as it already is
+				Path copy = outputDir.resolve(inputDir.relativize(file).toString());
+				Files.createDirectories(copy.getParent());
+				Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+				unchanged++;
+			}
+		}
+
+		project.getLogger().lifecycle(":" + changedNames.size() + " names changed, " + affected.size() + " files to remap and " + unchanged + " copied unchanged");
+		List<List<Path>> batches = partition(affected);
+
+		if (batches.isEmpty()) {
+			return;
+		}
 
-		project.getLogger().lifecycle(":remapping");
-		Mercury mercury = SourceRemapper.createMercuryWithClassPath(project, false);
+		int workers = Math.min(batches.size(), Math.min(Runtime.getRuntime().availableProcessors(),
+				(int) Math.max(1, Runtime.getRuntime().maxMemory() / WORKER_MEMORY)));
 
-		mercury.getClassPath().add(minecraftMappedProvider.getMappedJar().toPath());
-		mercury.getClassPath().add(minecraftMappedProvider.getIntermediaryJar().toPath());
+		//Made up front on this thread, as they need to resolve configurations which Gradle won't allow from a worker
+		Mercury template = SourceRemapper.createMercuryWithClassPath(project, false);
+		template.getClassPath().add(minecraftMappedProvider.getMappedJar().toPath());
+		template.getClassPath().add(minecraftMappedProvider.getIntermediaryJar().toPath());
 
-		mercury.getProcessors().add(MercuryRemapper.create(mappingSet));
+		Queue<Worker> idle = new ConcurrentLinkedQueue<>();
+		List<Worker> made = new ArrayList<>();
 
 		try {
-			mercury.rewrite(inputDir, outputDir);
-		} catch (Exception e) {
-			project.getLogger().warn("Could not remap fully!", e);
+			for (int i = 0; i < workers; i++) {
+				Mercury mercury = new Mercury();
+				mercury.getClassPath().addAll(template.getClassPath());
+				//Each worker needs its own mappings, as Mercury fills them in as it goes
+				mercury.getProcessors().add(MercuryRemapper.create(MappingFormats.SRG.read(joinedMappings)));
+				Worker worker = new Worker(mercury);
+				made.add(worker);
+				worker.mirror(inputDir, javaFiles);
+				idle.add(worker);
+			}
+
+			remapBatches(project, idle, inputDir, outputDir, batches, workers);
+		} finally {
+			for (Worker worker : made) {
+				Files.walkFileTree(worker.root, new DeletingFileVisitor());
+			}
 		}
 
 		project.getLogger().lifecycle(":cleaning file descriptors");
+		// TODO: FIXME - WORKAROUND https://github.com/FabricMC/fabric-loom/issues/45
 		System.gc();
 	}
+
+	private static void remapBatches(Project project, Queue<Worker> idle, Path inputDir, Path outputDir, List<List<Path>> batches, int workers) {
+		project.getLogger().lifecycle(":remapping " + batches.size() + " batches on " + workers + " threads");
+		ProgressLogger progressLogger = ProgressLogger.getProgressFactory(project, MigrateMappingsTask.class.getName());
+		progressLogger.start("Migrating mappings", "migrate mappings");
+
+		Map<Integer, Exception> failures = new ConcurrentHashMap<>();
+		AtomicInteger done = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+
+		try {
+			List<Future<?>> remaps = new ArrayList<>();
+
+			for (int i = 0; i < batches.size(); i++) {
+				int index = i;
+
+				remaps.add(executor.submit(() -> {
+					//Never more than one per thread, as each is only taken by the batch running on it
+					Worker worker = idle.poll();
+
+					try {
+						worker.remap(inputDir, outputDir, batches.get(index));
+					} catch (Exception e) {
+						failures.put(index, e);
+					} finally {
+						idle.add(worker);
+					}
+
+					synchronized (progressLogger) {
+						progressLogger.progress("remapped " + done.incrementAndGet() + "/" + batches.size() + " batches");
+					}
+				}));
+			}
+
+			for (Future<?> remap : remaps) {
+				remap.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted migrating mappings", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to migrate mappings", e.getCause());
+		} finally {
+			executor.shutdownNow();
+			progressLogger.completed();
+		}
+
+		if (!failures.isEmpty()) {
+			project.getLogger().warn("Could not remap " + failures.size() + " of " + batches.size() + " batches fully:");
+
+			for (Map.Entry<Integer, Exception> failure : new TreeMap<>(failures).entrySet()) {
+				List<Path> batch = batches.get(failure.getKey());
+				project.getLogger().warn(" - " + inputDir.relativize(batch.get(0).getParent()) + " (" + batch.size() + " files)", failure.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Collect the simple names of every class, field and method which the mappings give a different name, as they are
+	 * named in the current mappings. A class whose package changes counts, as its imports need rewriting.
+	 */
+	private static Set<String> collectChangedNames(MappingSet mappings) {
+		Set<String> names = new HashSet<>();
+
+		for (ClassMapping<?, ?> mapping : mappings.getTopLevelClassMappings()) {
+			collectChangedNames(mapping, names);
+		}
+
+		return names;
+	}
+
+	private static void collectChangedNames(ClassMapping<?, ?> mapping, Set<String> names) {
+		if (!mapping.getFullObfuscatedName().equals(mapping.getFullDeobfuscatedName())) {
+			names.add(mapping.getSimpleObfuscatedName());
+		}
+
+		for (FieldMapping field : mapping.getFieldMappings()) {
+			if (!field.getObfuscatedName().equals(field.getDeobfuscatedName())) {
+				names.add(field.getObfuscatedName());
+			}
+		}
+
+		for (MethodMapping method : mapping.getMethodMappings()) {
+			if (!method.getObfuscatedName().equals(method.getDeobfuscatedName())) {
+				names.add(method.getObfuscatedName());
+			}
+		}
+
+		for (ClassMapping<?, ?> inner : mapping.getInnerClassMappings()) {
+			collectChangedNames(inner, names);
+		}
+	}
+
+	/**
+	 * Whether any identifier in the given source file is one of the given names. This knows nothing about Java beyond
+	 * what an identifier looks like, so it can find names in comments and strings too, but it never misses a reference.
+	 */
+	static boolean referencesAny(Path file, Set<String> names) throws IOException {
+		if (names.isEmpty()) {
+			return false;
+		}
+
+		String source = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+
+		for (int i = 0, length = source.length(); i < length; ) {
+			if (!Character.isJavaIdentifierStart(source.charAt(i))) {
+				i++;
+				continue;
+			}
+
+			int start = i;
+
+			do {
+				i++;
+			} while (i < length && Character.isJavaIdentifierPart(source.charAt(i)));
+
+			if (names.contains(source.substring(start, i))) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Split the given Java files into batches of at most {@link #BATCH_SIZE}, keeping packages together
+	 * as far as possible so the classes each batch needs to look up are mostly in the batch already.
+	 */
+	private static List<List<Path>> partition(List<Path> javaFiles) {
+		Map<Path, List<Path>> packages = new TreeMap<>();
+
+		for (Path file : javaFiles) {
+			packages.computeIfAbsent(file.getParent(), k -> new ArrayList<>()).add(file);
+		}
+
+		List<List<Path>> batches = new ArrayList<>();
+		List<Path> batch = new ArrayList<>();
+
+		for (List<Path> files : packages.values()) {
+			if (!batch.isEmpty() && batch.size() + files.size() > BATCH_SIZE) {
+				batches.add(batch);
+				batch = new ArrayList<>();
+			}
+
+			for (Path file : files) {
+				if (batch.size() == BATCH_SIZE) {
+					batches.add(batch);
+					batch = new ArrayList<>();
+				}
+
+				batch.add(file);
+			}
+		}
+
+		if (!batch.isEmpty()) {
+			batches.add(batch);
+		}
+
+		return batches;
+	}
+
+	/**
+	 * A Mercury instance with its own copy of the source tree to use as its source path. The files of the batch being
+	 * remapped are moved out of the copy for the duration, so JDT finds each type exactly once: the batch's from the
+	 * files being rewritten and everything else lazily from the copy, rather than parsing the whole tree each time.
+	 */
+	private static final class Worker {
+		final Mercury mercury;
+		final Path root;
+		final Path tree;
+
+		Worker(Mercury mercury) throws IOException {
+			this.mercury = mercury;
+			root = Files.createTempDirectory("fabric-loom-migrate");
+			tree = root.resolve("tree");
+			mercury.getSourcePath().add(tree);
+		}
+
+		void mirror(Path inputDir, List<Path> javaFiles) throws IOException {
+			for (Path file : javaFiles) {
+				Path copy = tree.resolve(inputDir.relativize(file).toString());
+				Files.createDirectories(copy.getParent());
+				Files.copy(file, copy);
+			}
+		}
+
+		void remap(Path inputDir, Path outputDir, List<Path> batch) throws Exception {
+			Path batchDir = root.resolve("batch");
+			List<Path> moved = new ArrayList<>();
+
+			try {
+				for (Path file : batch) {
+					String name = inputDir.relativize(file).toString();
+					Path to = batchDir.resolve(name);
+					Files.createDirectories(to.getParent());
+					Files.move(tree.resolve(name), to);
+					moved.add(to);
+				}
+
+				mercury.rewrite(batchDir, outputDir);
+			} finally {
+				//Put everything back for the next batch, the moves are only renames within the worker's directory
+				for (Path file : moved) {
+					Files.move(file, tree.resolve(batchDir.relativize(file).toString()));
+				}
+
+				if (Files.exists(batchDir)) {
+					Files.walkFileTree(batchDir, new DeletingFileVisitor());
+				}
+			}
+		}
+	}
 }
@@ -26,14 +26,17 @@ package net.fabricmc.loom.task;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Consumer;
-import java.util.zip.ZipEntry;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
@@ -54,8 +57,6 @@ import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.commons.ClassRemapper;
 import org.objectweb.asm.commons.Remapper;
-import org.zeroturnaround.zip.ZipUtil;
-import org.zeroturnaround.zip.transform.StringZipEntryTransformer;
 
 import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.providers.MappingsProvider;
@@ -65,7 +66,10 @@ import net.fabricmc.loom.util.NestedJars;
 import net.fabricmc.loom.util.TinyRemapperMappingsHelper;
 import net.fabricmc.loom.util.accesswidener.AccessWidenerJarProcessor;
 import net.fabricmc.loom.util.gloom.DebugMixinEmitter;
-import net.fabricmc.tinyremapper.OutputConsumerPath;
+import net.fabricmc.loom.util.remapping.ClasspathStubs;
+import net.fabricmc.loom.util.zip.EntryTransformer;
+import net.fabricmc.loom.util.zip.ZipEdit;
+import net.fabricmc.loom.util.zip.ZipWriter;
 import net.fabricmc.tinyremapper.TinyRemapper;
 import net.fabricmc.tinyremapper.TinyRemapperInheritanceProvider;
 import net.fabricmc.tinyremapper.TinyUtils;
@@ -103,14 +107,14 @@ public class RemapJarTask extends Jar {
 		Set<File> classpathFiles = new LinkedHashSet<>(
 				project.getConfigurations().getByName("compileClasspath").getFiles()
 		);
-		Path[] classpath = classpathFiles.stream().map(File::toPath).filter((p) -> !input.equals(p) && Files.exists(p)).toArray(Path[]::new);
+		Path[] classpath = ClasspathStubs.INSTANCE.get(extension.getUserCache(), classpathFiles.stream().map(File::toPath).filter((p) -> !input.equals(p) && Files.exists(p)).toArray(Path[]::new));
 
 		File mixinMapFile = mappingsProvider.mappingsMixinExport;
 		Path mixinMapPath = mixinMapFile.toPath();
 
 		TinyRemapper.Builder remapperBuilder = TinyRemapper.newRemapper();
 
-		remapperBuilder = remapperBuilder.withMappings(TinyRemapperMappingsHelper.create(mappingsProvider.getMappings(), fromM, toM, false));
+		remapperBuilder = remapperBuilder.withMappings(TinyRemapperMappingsHelper.create(mappingsProvider.getCompactMappings(), fromM, toM, false));
 
 		if (mixinMapFile.exists()) {
 			remapperBuilder = remapperBuilder.withMappings(TinyUtils.createTinyMappingProvider(mixinMapPath, fromM, toM));
@@ -168,47 +172,61 @@ public class RemapJarTask extends Jar {
 
 		Set<String> mixins = new HashSet<>();
 
-		try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(output).build()) {
-			outputConsumer.addNonClassFiles(input);
+		try (ZipWriter writer = new ZipWriter(output)) {
+			//Resources go first so the manifest stays at the front, where JarInputStream expects it
+			writer.copy(input, name -> !name.endsWith(".class"));
+
 			remapper.readClassPath(classpath);
 			remapper.readInputs(input);
-			remapper.apply(outputConsumer);
 
-			provider.getEmitters().forEach((name, emitter) -> {
+			Map<String, byte[]> classes = new ConcurrentHashMap<>();
+			remapper.apply(classes::put);
+
+			for (MixinEmitter emitter : provider.getEmitters().values()) {
 				if (emitter.shouldEmitHolder()) {
-					outputConsumer.accept(emitter.getHolder(), write(remapper.getRemapper(), emitter::emitHolder));
+					classes.put(emitter.getHolder(), write(remapper.getRemapper(), emitter::emitHolder));
 				}
 
 				if (emitter.shouldEmitInterface()) {
-					outputConsumer.accept(emitter.getInterface(), write(remapper.getRemapper(), emitter::emitInterface));
+					classes.put(emitter.getInterface(), write(remapper.getRemapper(), emitter::emitInterface));
 				}
 
 				if (emitter.shouldEmitMixin()) {
 					mixins.add(emitter.getMixin());
-					outputConsumer.accept(emitter.getMixin(), write(remapper.getRemapper(), emitter::emitMixin));
+					classes.put(emitter.getMixin(), write(remapper.getRemapper(), emitter::emitMixin));
 				}
-			});
+			}
+
+			for (Map.Entry<String, byte[]> entry : new TreeMap<>(classes).entrySet()) {
+				writer.write(entry.getKey() + ".class", entry.getValue());
+			}
+
+			writer.finish();
 		} catch (Exception e) {
 			remapper.finish();
 			throw new RuntimeException("Failed to remap " + input + " to " + output, e);
 		}
 
-		if (getRemapAccessWidener().getOrElse(false) && extension.accessWidener != null) {
-			extension.getJarProcessorManager().getByType(AccessWidenerJarProcessor.class).remapAccessWidener(output, remapper.getRemapper());
+		if (!Files.exists(output)) {
+			remapper.finish();
+			throw new RuntimeException("Failed to remap " + input + " to " + output + " - file missing!");
 		}
 
-		remapper.finish();
+		//Everything else done to the output is collected up and written in one go
+		ZipEdit edit = new ZipEdit(output);
 
-		if (!Files.exists(output)) {
-			throw new RuntimeException("Failed to remap " + input + " to " + output + " - file missing!");
+		if (getRemapAccessWidener().getOrElse(false) && extension.accessWidener != null) {
+			extension.getJarProcessorManager().getByType(AccessWidenerJarProcessor.class).remapAccessWidener(edit, output, remapper.getRemapper());
 		}
 
-		if (MixinRefmapHelper.addRefmapName(extension.getRefmapName(), extension.getMixinJsonVersion(), output)) {
+		remapper.finish();
+
+		if (MixinRefmapHelper.addRefmapName(extension.getRefmapName(), extension.getMixinJsonVersion(), output, edit)) {
 			project.getLogger().debug("Transformed mixin reference maps in output JAR!");
 		}
 
 		if (getAddNestedDependencies().getOrElse(false)) {
-			if (NestedJars.addNestedJars(project, output)) {
+			if (NestedJars.addNestedJars(project, edit)) {
 				project.getLogger().debug("Added nested jar paths to mod json");
 			}
 		}
@@ -229,24 +247,23 @@ public class RemapJarTask extends Jar {
 				list.add(entry.substring(packageOffset).replace('/', '.'));
 			}
 
-			ZipUtil.addEntry(output.toFile(), file, config.toString().getBytes());
-			ZipUtil.transformEntry(output.toFile(), "fabric.mod.json", new StringZipEntryTransformer() {
-				@Override
-				protected String transform(ZipEntry zipEntry, String input) {
-					JsonObject object = new Gson().fromJson(input, JsonObject.class);
-					JsonArray mixins = object.getAsJsonArray("mixins");
-
-					if (mixins == null) {
-						mixins = new JsonArray();
-						object.add("mixins", mixins);
-					}
+			edit.put(file, config.toString().getBytes(StandardCharsets.UTF_8));
+			edit.transform("fabric.mod.json", EntryTransformer.ofString(json -> {
+				JsonObject object = new Gson().fromJson(json, JsonObject.class);
+				JsonArray mixins = object.getAsJsonArray("mixins");
 
-					mixins.add(file);
-					return object.toString();
+				if (mixins == null) {
+					mixins = new JsonArray();
+					object.add("mixins", mixins);
 				}
-			});
+
+				mixins.add(file);
+				return object.toString();
+			}));
 		}
 
+		edit.commit();
+
 		/*try {
 			if (modJar.exists()) {
 				Files.move(modJar, modJarUnmappedCopy);
@@ -0,0 +1,59 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package net.fabricmc.loom.task;
+
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
+
+import net.fabricmc.loom.util.SourceRemapper;
+
+/**
+ * Remaps the sources of mod dependencies, which is left until something needs them rather than done whilst
+ * configuring, so builds which never look at the sources don't pay for remapping them.
+ */
+public class RemapModSourcesTask extends AbstractLoomTask {
+	private String artifact;
+
+	@TaskAction
+	public void remap() {
+		SourceRemapper sourceRemapper = getExtension().getDependencyManager().getSourceRemapper();
+
+		if (sourceRemapper == null || !sourceRemapper.hasScheduled()) {
+			return;
+		}
+
+		if (artifact == null) {
+			sourceRemapper.remapAll();
+		} else {
+			sourceRemapper.remapMatching(destination -> destination.getName().contains(artifact));
+		}
+	}
+
+	@Option(option = "artifact", description = "Only remap the sources of mods whose remapped file name contains this")
+	public void setArtifact(String artifact) {
+		this.artifact = artifact;
+	}
+}
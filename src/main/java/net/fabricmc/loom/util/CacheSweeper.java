@@ -0,0 +1,80 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package net.fabricmc.loom.util;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the content addressed stores in the user cache from growing forever, by removing anything which hasn't been
+ * used for a month.
+ *
+ * <p>Entries are marked as used by touching them, so their last modified time is when they were last used. Each
+ * directory is only swept the first time it is used by a daemon.
+ */
+public final class CacheSweeper {
+	public static final long EXPIRY = TimeUnit.DAYS.toMillis(30);
+	private static final Set<Path> SWEPT = ConcurrentHashMap.newKeySet();
+
+	private CacheSweeper() { }
+
+	/**
+	 * Remove everything in the given directory which hasn't been used within {@link #EXPIRY}, unless the directory
+	 * has been swept already.
+	 *
+	 * @return Whether the directory was swept
+	 */
+	public static boolean sweep(Path dir) throws IOException {
+		if (!SWEPT.add(dir.toAbsolutePath()) || !Files.isDirectory(dir)) {
+			return false;
+		}
+
+		long cutoff = System.currentTimeMillis() - EXPIRY;
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+			for (Path file : files) {
+				if (Files.isRegularFile(file) && Files.getLastModifiedTime(file).toMillis() < cutoff) {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Mark the given entry as used so it isn't swept away.
+	 */
+	public static void markUsed(Path file) throws IOException {
+		Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hashes files, remembering the result for each path for as long as its size and last modified time stay the same.
+ *
+ * <p>A file changed again within the same timestamp as it was hashed would look unchanged, so a hash is only trusted
+ * once the file's last modified time is comfortably older than when it was hashed. Anything Loom rewrites itself also
+ * {@link #invalidate(File)}s its hash straight away.
+ *
+ * <p>Large files such as the merged, mapped and mod jars are memory mapped and fed straight into the digest, rather
+ * than streaming their contents through the heap. The memoised hashes live for the lifetime of the daemon.
+ */
+public final class HashingService {
+	public static final HashingService INSTANCE = new HashingService();
+
+	/** Files at least this big are memory mapped rather than read. */
+	private static final long MAP_THRESHOLD = 1 << 20;
+	/** The largest region mapped at once. */
+	private static final long MAP_CHUNK = 64 << 20;
+	/** How far apart a file's modification and its hashing need to be to be sure nothing changed in between, covers FAT's 2 second timestamps. */
+	private static final long RACY_WINDOW = 2000;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Map<Key, Hash> hashes = new ConcurrentHashMap<>();
+	private final ThreadLocal<ByteBuffer> readBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate((int) MAP_THRESHOLD));
+
+	private HashingService() { }
+
+	public enum Algorithm {
+		SHA1("SHA-1"),
+		SHA256("SHA-256");
+
+		private final String name;
+
+		Algorithm(String name) {
+			this.name = name;
+		}
+
+		MessageDigest newDigest() {
+			try {
+				return MessageDigest.getInstance(name);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("Missing standard digest " + name, e);
+			}
+		}
+	}
+
+	public byte[] sha1(File file) throws IOException {
+		return hash(file, Algorithm.SHA1);
+	}
+
+	public byte[] sha256(File file) throws IOException {
+		return hash(file, Algorithm.SHA256);
+	}
+
+	/**
+	 * Check whether the SHA-1 hash of the given file matches the given hex string.
+	 *
+	 * @param file The file to check, which may not exist
+	 * @param sha1 The expected hash as a hex string
+	 * @return Whether the file exists and has the expected hash
+	 * @throws IOException If the file exists but cannot be read
+	 */
+	public boolean matchesSha1(File file, String sha1) throws IOException {
+		if (file == null || !file.isFile()) {
+			return false;
+		}
+
+		return toHex(sha1(file)).equalsIgnoreCase(sha1);
+	}
+
+	/**
+	 * Get the hash of the given file, only reading it if it hasn't been hashed before or has changed since.
+	 *
+	 * @param file The file to hash
+	 * @param algorithm The hashing algorithm to use
+	 * @return The hash of the file, callers must not modify it
+	 * @throws IOException If the file cannot be read
+	 */
+	public byte[] hash(File file, Algorithm algorithm) throws IOException {
+		Path path = file.toPath().toAbsolutePath();
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		long size = attributes.size();
+		long modified = attributes.lastModifiedTime().toMillis();
+
+		Key key = new Key(path, algorithm);
+		Hash hash = hashes.get(key);
+
+		if (hash == null || hash.size != size || hash.modified != modified || hash.hashed - modified < RACY_WINDOW) {
+			long hashed = System.currentTimeMillis();
+			hash = new Hash(size, modified, hashed, digest(path, size, algorithm.newDigest()));
+			hashes.put(key, hash);
+		}
+
+		return hash.value;
+	}
+
+	/**
+	 * Hash the given file from its contents, whatever has been remembered for it, and remember the new hash.
+	 *
+	 * @param file The file to hash
+	 * @param algorithm The hashing algorithm to use
+	 * @return The hash of the file, callers must not modify it
+	 * @throws IOException If the file cannot be read
+	 */
+	public byte[] rehash(File file, Algorithm algorithm) throws IOException {
+		invalidate(file);
+		return hash(file, algorithm);
+	}
+
+	/**
+	 * Forget any remembered hashes for the given file, for when it has been rewritten within the same timestamp.
+	 *
+	 * @param file The file to forget
+	 */
+	public void invalidate(File file) {
+		Path path = file.toPath().toAbsolutePath();
+
+		for (Algorithm algorithm : Algorithm.values()) {
+			hashes.remove(new Key(path, algorithm));
+		}
+	}
+
+	private byte[] digest(Path path, long size, MessageDigest digest) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (size < MAP_THRESHOLD) {
+				ByteBuffer buffer = readBuffers.get();
+				buffer.clear();
+				int read;
+
+				do {
+					read = channel.read(buffer);
+				} while (read >= 0 && buffer.hasRemaining());
+
+				buffer.flip();
+				digest.update(buffer);
+			} else {
+				for (long position = 0; position < size; position += MAP_CHUNK) {
+					MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_CHUNK, size - position));
+
+					try {
+						digest.update(mapped);
+					} finally {
+						MappedBuffers.unmap(mapped);
+					}
+				}
+			}
+		}
+
+		return digest.digest();
+	}
+
+	public static String toHex(byte[] bytes) {
+		char[] out = new char[bytes.length * 2];
+
+		for (int i = 0; i < bytes.length; i++) {
+			out[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+			out[i * 2 + 1] = HEX[bytes[i] & 0xF];
+		}
+
+		return new String(out);
+	}
+
+	private static final class Key {
+		private final Path path;
+		private final Algorithm algorithm;
+
+		Key(Path path, Algorithm algorithm) {
+			this.path = path;
+			this.algorithm = algorithm;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			} else if (!(o instanceof Key)) {
+				return false;
+			} else {
+				Key that = (Key) o;
+				return algorithm == that.algorithm && path.equals(that.path);
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * path.hashCode() + algorithm.hashCode();
+		}
+	}
+
+	private static final class Hash {
+		final long size;
+		final long modified;
+		final long hashed;
+		final byte[] value;
+
+		Hash(long size, long modified, long hashed, byte[] value) {
+			this.size = size;
+			this.modified = modified;
+			this.hashed = hashed;
+			this.value = value;
+		}
+	}
+}
@@ -51,6 +51,7 @@ public class LoomDependencyManager {
 	}
 
 	private List<DependencyProvider> dependencyProviderList = new ArrayList<>();
+	private SourceRemapper sourceRemapper;
 
 	public void addProvider(DependencyProvider provider) {
 		if (dependencyProviderList.contains(provider)) {
@@ -75,6 +76,13 @@ public class LoomDependencyManager {
 		return null;
 	}
 
+	/**
+	 * The remapper holding the mod dependency sources which are still to be remapped, see {@link net.fabricmc.loom.task.RemapModSourcesTask}.
+	 */
+	public SourceRemapper getSourceRemapper() {
+		return sourceRemapper;
+	}
+
 	public void handleDependencies(Project project) {
 		List<Runnable> afterTasks = new ArrayList<>();
 
@@ -116,7 +124,7 @@ public class LoomDependencyManager {
 			});
 		}
 
-		SourceRemapper sourceRemapper = new SourceRemapper(project, true);
+		sourceRemapper = new SourceRemapper(project, true);
 		String mappingsKey = mappingsProvider.mappingsName + "." + mappingsProvider.minecraftVersion.replace(' ', '_').replace('.', '_').replace('-', '_') + "." + mappingsProvider.mappingsVersion;
 
 		ModCompileRemapper.remapDependencies(project, mappingsKey, extension, sourceRemapper);
@@ -147,7 +155,10 @@ public class LoomDependencyManager {
 			project.getLogger().warn("fabric-installer.json not found in classpath!");
 		}
 
-		sourceRemapper.remapAll();
+		//IDEA resolves sources as part of the sync rather than through a task, so they have to be ready now
+		if (extension.ideSync()) {
+			sourceRemapper.remapAll();
+		}
 
 		for (Runnable runnable : afterTasks) {
 			runnable.run();
@@ -0,0 +1,93 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package net.fabricmc.loom.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Releases memory mapped files as soon as they are finished with.
+ */
+public final class MappedBuffers {
+	private static final Unmapper UNMAPPER = Unmapper.find();
+
+	private MappedBuffers() { }
+
+	/**
+	 * Release a mapping straight away rather than waiting for the GC, otherwise Windows keeps the file locked.
+	 */
+	public static void unmap(ByteBuffer buffer) {
+		if (UNMAPPER != null) {
+			UNMAPPER.unmap(buffer);
+		}
+	}
+
+	@FunctionalInterface
+	private interface Unmapper {
+		void unmap(ByteBuffer buffer);
+
+		static Unmapper find() {
+			try {
+				//Java 9+
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				Object unsafe = theUnsafe.get(null);
+
+				return buffer -> {
+					try {
+						invokeCleaner.invoke(unsafe, buffer);
+					} catch (ReflectiveOperationException e) {
+						//Leave it to the GC
+					}
+				};
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				//Must be Java 8
+			}
+
+			try {
+				Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+				Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+
+				return buffer -> {
+					try {
+						Object bufferCleaner = cleaner.invoke(buffer);
+
+						if (bufferCleaner != null) {
+							clean.invoke(bufferCleaner);
+						}
+					} catch (ReflectiveOperationException | RuntimeException e) {
+						//Leave it to the GC
+					}
+				};
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				return null;
+			}
+		}
+	}
+}
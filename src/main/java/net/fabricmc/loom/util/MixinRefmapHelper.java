@@ -25,49 +25,50 @@
 package net.fabricmc.loom.util;
 
 import java.io.File;
-import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.file.Path;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.zip.ZipEntry;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 import org.zeroturnaround.zip.ZipUtil;
-import org.zeroturnaround.zip.transform.StringZipEntryTransformer;
-import org.zeroturnaround.zip.transform.ZipEntryTransformerEntry;
+
+import net.fabricmc.loom.util.zip.EntryTransformer;
+import net.fabricmc.loom.util.zip.ZipEdit;
 
 public final class MixinRefmapHelper {
 	private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
 
 	private MixinRefmapHelper() { }
 
-	public static boolean addRefmapName(String filename, String mixinVersion, Path outputPath) {
+	/**
+	 * Queue adding the refmap to any mixin configs in the given jar which are missing it.
+	 *
+	 * @return Whether any mixin configs will be changed once the edit is committed
+	 */
+	public static boolean addRefmapName(String filename, String mixinVersion, Path outputPath, ZipEdit edit) {
 		File output = outputPath.toFile();
 		Set<String> mixinFilenames = findMixins(output, true);
 
-		if (mixinFilenames.size() > 0) {
-			return ZipUtil.transformEntries(output, mixinFilenames.stream().map((f) -> new ZipEntryTransformerEntry(f, new StringZipEntryTransformer("UTF-8") {
-				@Override
-				protected String transform(ZipEntry zipEntry, String input) throws IOException {
-					JsonObject json = GSON.fromJson(input, JsonObject.class);
-
-					if (!json.has("refmap")) {
-						json.addProperty("refmap", filename);
-					}
+		for (String mixinFilename : mixinFilenames) {
+			edit.transform(mixinFilename, EntryTransformer.ofString(input -> {
+				JsonObject json = GSON.fromJson(input, JsonObject.class);
 
-					if (!json.has("minVersion") && mixinVersion != null) {
-						json.addProperty("minVersion", mixinVersion);
-					}
+				if (!json.has("refmap")) {
+					json.addProperty("refmap", filename);
+				}
 
-					return GSON.toJson(json);
+				if (!json.has("minVersion") && mixinVersion != null) {
+					json.addProperty("minVersion", mixinVersion);
 				}
-			})).toArray(ZipEntryTransformerEntry[]::new));
-		} else {
-			return false;
+
+				return GSON.toJson(json);
+			}));
 		}
+
+		return !mixinFilenames.isEmpty();
 	}
 
 	private static Set<String> findMixins(File output, boolean onlyWithoutRefmap) {
@@ -163,17 +163,10 @@ public class ModCompileRemapper {
 		project.getLogger().info(":providing " + remappedLog + " sources");
 		File remappedSources = new File(modStore, remappedFilename + "-sources.jar");
 
-		if (!remappedSources.exists() || sources.lastModified() <= 0 || sources.lastModified() > remappedSources.lastModified()) {
-			try {
-				sourceRemapper.scheduleRemapSources(sources, remappedSources);
-
-				//Set the remapped sources creation date to match the sources if we're likely succeeded in making it
-				remappedSources.setLastModified(sources.lastModified());
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		} else {
-			project.getLogger().info(remappedSources.getName() + " is up to date with " + sources.getName());
+		try {
+			sourceRemapper.scheduleRemapSources(sources, remappedSources, RemappedSourcesStore.create(project, true));
+		} catch (IOException e) {
+			project.getLogger().warn("Failed to schedule remapping " + sources.getName(), e);
 		}
 	}
 }
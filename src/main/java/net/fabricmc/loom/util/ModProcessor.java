@@ -31,14 +31,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarFile;
-import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -46,19 +50,17 @@ import com.google.gson.JsonObject;
 import org.apache.commons.io.IOUtils;
 import org.gradle.api.Project;
 import org.objectweb.asm.commons.Remapper;
-import org.zeroturnaround.zip.ZipUtil;
-import org.zeroturnaround.zip.transform.StringZipEntryTransformer;
-import org.zeroturnaround.zip.transform.ZipEntryTransformerEntry;
 
 import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.providers.MappingsProvider;
 import net.fabricmc.loom.providers.MinecraftMappedProvider;
 import net.fabricmc.loom.util.accesswidener.AccessWidener;
 import net.fabricmc.loom.util.accesswidener.AccessWidenerRemapper;
+import net.fabricmc.loom.util.remapping.ClasspathStubs;
+import net.fabricmc.loom.util.zip.ZipWriter;
 import net.fabricmc.loom.processors.dependency.ModDependencyInfo;
 import net.fabricmc.tinyremapper.TinyRemapper;
 import net.fabricmc.tinyremapper.InputTag;
-import net.fabricmc.tinyremapper.OutputConsumerPath;
 
 public class ModProcessor {
 	public static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
@@ -68,35 +70,45 @@ public class ModProcessor {
 			return;
 		}
 
+		RemappedModStore store = RemappedModStore.create(project);
+		List<ModDependencyInfo> remapList = new ArrayList<>();
+
 		for (ModDependencyInfo info : processList) {
-			if (info.requiresRemapping() && info.getRemappedOutput().exists()) {
-				info.getRemappedOutput().delete();
+			if (!info.requiresRemapping()) {
+				continue;
+			}
+
+			if (store.restore(info)) {
+				project.getLogger().info("Reusing stored remapped " + info);
+			} else {
+				if (info.getRemappedOutput().exists()) {
+					info.getRemappedOutput().delete();
+				}
+
+				remapList.add(info);
 			}
 		}
 
-		remapJars(project, processList);
+		if (!remapList.isEmpty()) {
+			remapJars(project, remapList);
+		}
 
 		for (ModDependencyInfo info : processList) {
 			if (!info.getRemappedOutput().exists()) {
 				throw new RuntimeException("Failed to remap mod" + info);
 			}
+		}
 
-			if (info.requiresRemapping()) {
-				stripNestedJars(info.getRemappedOutput());
-			}
+		for (ModDependencyInfo info : remapList) {
+			store.store(info);
 		}
 	}
 
-	private static void stripNestedJars(File file) {
+	private static byte[] stripNestedJars(byte[] modJson) {
 		//Strip out all contained jar info as we dont want loader to try and load the jars contained in dev.
-		ZipUtil.transformEntries(file, new ZipEntryTransformerEntry[] {(new ZipEntryTransformerEntry("fabric.mod.json", new StringZipEntryTransformer() {
-			@Override
-			protected String transform(ZipEntry zipEntry, String input) throws IOException {
-				JsonObject json = GSON.fromJson(input, JsonObject.class);
-				json.remove("jars");
-				return GSON.toJson(json);
-			}
-		}))});
+		JsonObject json = GSON.fromJson(new String(modJson, StandardCharsets.UTF_8), JsonObject.class);
+		json.remove("jars");
+		return GSON.toJson(json).getBytes(StandardCharsets.UTF_8);
 	}
 
 	private static byte[] remapAccessWidener(byte[] input, Remapper remapper) {
@@ -116,7 +128,7 @@ public class ModProcessor {
 		}
 	}
 
-	private static void remapJars(Project project, List<ModDependencyInfo> processList) throws IOException {
+	private static void remapJars(Project project, List<ModDependencyInfo> remapList) throws IOException {
 		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
 		String fromM = "intermediary";
 		String toM = "named";
@@ -124,15 +136,13 @@ public class ModProcessor {
 		MinecraftMappedProvider mappedProvider = extension.getMinecraftMappedProvider();
 		MappingsProvider mappingsProvider = extension.getMappingsProvider();
 
-		Path mc = mappedProvider.getIntermediaryJar().toPath();
-		Path[] mcDeps = mappedProvider.getMapperPaths().stream().map(File::toPath).toArray(Path[]::new);
-
-		List<ModDependencyInfo> remapList = processList.stream().filter(ModDependencyInfo::requiresRemapping).collect(Collectors.toList());
+		Path[] mc = ClasspathStubs.INSTANCE.get(extension.getUserCache(), mappedProvider.getIntermediaryJar().toPath());
+		Path[] mcDeps = mappedProvider.getRemapClasspath();
 
 		project.getLogger().lifecycle(":remapping " + remapList.size() + " mods (TinyRemapper, " + fromM + " -> " + toM + ")");
 
 		TinyRemapper remapper = TinyRemapper.newRemapper()
-						.withMappings(TinyRemapperMappingsHelper.create(mappingsProvider.getMappings(), fromM, toM, false))
+						.withMappings(TinyRemapperMappingsHelper.create(mappingsProvider.getCompactMappings(), fromM, toM, false))
 						.renameInvalidLocals(false)
 						.build();
 
@@ -140,14 +150,13 @@ public class ModProcessor {
 		remapper.readClassPathAsync(mcDeps);
 
 		final Map<ModDependencyInfo, InputTag> tagMap = new HashMap<>();
-		final Map<ModDependencyInfo, OutputConsumerPath> outputConsumerMap = new HashMap<>();
-		final Map<ModDependencyInfo, byte[]> accessWidenerMap = new HashMap<>();
+		final Map<ModDependencyInfo, Map<String, byte[]>> classMap = new HashMap<>();
 
 		for (RemappedConfigurationEntry entry : Constants.MOD_COMPILE_ENTRIES) {
 			for (File inputFile : project.getConfigurations().getByName(entry.getSourceConfiguration()).getFiles()) {
 				if (remapList.stream().noneMatch(info -> info.getInputFile().equals(inputFile))) {
 					project.getLogger().info("Adding " + inputFile + " onto the remap classpath");
-					remapper.readClassPathAsync(inputFile.toPath());
+					remapper.readClassPathAsync(ClasspathStubs.INSTANCE.get(extension.getUserCache(), inputFile.toPath()));
 				}
 			}
 		}
@@ -159,29 +168,72 @@ public class ModProcessor {
 			tagMap.put(info, tag);
 		}
 
-		// Apply this in a second loop as we need to ensure all the inputs are on the classpath before remapping.
-		for (ModDependencyInfo info : remapList) {
-			OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(info.getRemappedOutput().toPath()).build();
-			outputConsumer.addNonClassFiles(info.getInputFile().toPath());
-			outputConsumerMap.put(info, outputConsumer);
-			String accessWidener = info.getAccessWidener();
-
-			if (accessWidener != null) {
-				accessWidenerMap.put(info, remapAccessWidener(ZipUtil.unpackEntry(info.inputFile, accessWidener), remapper.getRemapper()));
+		try {
+			// Apply this in a second loop as we need to ensure all the inputs are on the classpath before remapping.
+			for (ModDependencyInfo info : remapList) {
+				Map<String, byte[]> classes = new ConcurrentHashMap<>();
+				remapper.apply(classes::put, tagMap.get(info));
+				classMap.put(info, classes);
 			}
 
-			remapper.apply(outputConsumer, tagMap.get(info));
+			remapList.parallelStream().forEach(info -> {
+				try {
+					writeRemappedMod(info, classMap.get(info), remapper.getRemapper());
+				} catch (IOException e) {
+					throw new UncheckedIOException(new IOException("Failed to write remapped " + info, e));
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			remapper.finish();
 		}
+	}
 
-		remapper.finish();
+	/**
+	 * Write out a remapped mod in a single pass, taking everything but the classes from the original jar. Nested jars
+	 * are stripped from the mod json and the access widener is remapped, everything else is copied across as it is.
+	 */
+	private static void writeRemappedMod(ModDependencyInfo info, Map<String, byte[]> classes, Remapper remapper) throws IOException {
+		String accessWidener = info.getAccessWidener();
+		Path input = info.getInputFile().toPath();
 
-		for (ModDependencyInfo info : remapList) {
-			outputConsumerMap.get(info).close();
-			byte[] accessWidener = accessWidenerMap.get(info);
+		try (ZipWriter writer = new ZipWriter(info.getRemappedOutput().toPath())) {
+			writer.copy(input, name -> !name.endsWith(".class") && !"fabric.mod.json".equals(name) && !name.equals(accessWidener));
+
+			try (ZipFile zip = new ZipFile(input.toFile())) {
+				byte[] modJson = readEntry(zip, "fabric.mod.json");
+
+				if (modJson != null) {
+					writer.write("fabric.mod.json", stripNestedJars(modJson));
+				}
+
+				if (accessWidener != null) {
+					byte[] data = readEntry(zip, accessWidener);
+
+					if (data != null) {
+						writer.write(accessWidener, remapAccessWidener(data, remapper));
+					}
+				}
+			}
 
-			if (accessWidener != null) {
-				ZipUtil.replaceEntry(info.getRemappedOutput(), info.getAccessWidener(), accessWidener);
+			for (Map.Entry<String, byte[]> entry : new TreeMap<>(classes).entrySet()) {
+				writer.write(entry.getKey() + ".class", entry.getValue());
 			}
+
+			writer.finish();
+		}
+	}
+
+	private static byte[] readEntry(ZipFile zip, String name) throws IOException {
+		ZipEntry entry = zip.getEntry(name);
+
+		if (entry == null) {
+			return null;
+		}
+
+		try (InputStream in = zip.getInputStream(entry)) {
+			return IOUtils.toByteArray(in);
 		}
 	}
 
@@ -26,24 +26,19 @@ package net.fabricmc.loom.util;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
-import java.util.zip.ZipEntry;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import org.apache.commons.io.FileUtils;
-import org.zeroturnaround.zip.FileSource;
-import org.zeroturnaround.zip.ZipEntrySource;
 import org.zeroturnaround.zip.ZipUtil;
-import org.zeroturnaround.zip.transform.StringZipEntryTransformer;
-import org.zeroturnaround.zip.transform.ZipEntryTransformerEntry;
 import org.gradle.api.Project;
 import org.gradle.api.Task;
 import org.gradle.api.artifacts.Configuration;
@@ -54,42 +49,48 @@ import org.gradle.api.tasks.bundling.AbstractArchiveTask;
 
 import net.fabricmc.loom.LoomGradleExtension;
 import net.fabricmc.loom.task.RemapJarTask;
+import net.fabricmc.loom.util.zip.EntryTransformer;
+import net.fabricmc.loom.util.zip.ZipEdit;
 
 public class NestedJars {
 	private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
 
-	public static boolean addNestedJars(Project project, Path modJarPath) {
+	/**
+	 * Queue adding the project's nested jars to the given edit of the mod jar.
+	 *
+	 * @return Whether there were any jars to nest
+	 */
+	public static boolean addNestedJars(Project project, ZipEdit edit) {
 		List<File> containedJars = getContainedJars(project);
 
 		if (containedJars.isEmpty()) {
 			return false;
 		}
 
-		File modJar = modJarPath.toFile();
+		for (File file : containedJars) {
+			edit.put("META-INF/jars/" + file.getName(), file.toPath());
+		}
 
-		ZipUtil.addOrReplaceEntries(modJar, containedJars.stream().map(file -> new FileSource("META-INF/jars/" + file.getName(), file)).toArray(ZipEntrySource[]::new));
+		edit.transform("fabric.mod.json", EntryTransformer.ofString(input -> {
+			JsonObject json = GSON.fromJson(input, JsonObject.class);
+			JsonArray nestedJars = json.getAsJsonArray("jars");
 
-		return ZipUtil.transformEntries(modJar, single(new ZipEntryTransformerEntry("fabric.mod.json", new StringZipEntryTransformer() {
-			@Override
-			protected String transform(ZipEntry zipEntry, String input) throws IOException {
-				JsonObject json = GSON.fromJson(input, JsonObject.class);
-				JsonArray nestedJars = json.getAsJsonArray("jars");
+			if (nestedJars == null || !json.has("jars")) {
+				nestedJars = new JsonArray();
+			}
 
-				if (nestedJars == null || !json.has("jars")) {
-					nestedJars = new JsonArray();
-				}
+			for (File file : containedJars) {
+				JsonObject jsonObject = new JsonObject();
+				jsonObject.addProperty("file", "META-INF/jars/" + file.getName());
+				nestedJars.add(jsonObject);
+			}
 
-				for (File file : containedJars) {
-					JsonObject jsonObject = new JsonObject();
-					jsonObject.addProperty("file", "META-INF/jars/" + file.getName());
-					nestedJars.add(jsonObject);
-				}
+			json.add("jars", nestedJars);
 
-				json.add("jars", nestedJars);
+			return GSON.toJson(json);
+		}));
 
-				return GSON.toJson(json);
-			}
-		})));
+		return true;
 	}
 
 	private static List<File> getContainedJars(Project project) {
@@ -181,7 +182,11 @@ public class NestedJars {
 					throw new RuntimeException("Failed to copy file", e);
 				}
 
-				ZipUtil.addEntry(tempFile, "fabric.mod.json", getMod(dependency).getBytes());
+				try {
+					new ZipEdit(tempFile).put("fabric.mod.json", getMod(dependency).getBytes(StandardCharsets.UTF_8)).commit();
+				} catch (IOException e) {
+					throw new RuntimeException("Failed to add fabric.mod.json to " + tempFile, e);
+				}
 				fileList.add(tempFile);
 			} else {
 				//Default copy the jar right in
@@ -202,8 +207,4 @@ public class NestedJars {
 
 		return GSON.toJson(jsonObject);
 	}
-
-	private static ZipEntryTransformerEntry[] single(ZipEntryTransformerEntry element) {
-		return new ZipEntryTransformerEntry[]{element};
-	}
 }
@@ -0,0 +1,244 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import net.fabricmc.stitch.merge.ClassMerger;
+import net.fabricmc.stitch.util.StitchUtil;
+import net.fabricmc.stitch.util.SyntheticParameterClassVisitor;
+
+/**
+ * Merges the client and server jars, producing the same entries as Stitch's {@link net.fabricmc.stitch.merge.JarMerger}.
+ *
+ * <p>Entries are merged in small partitions on a fork-join pool, with each partition written out in name order as
+ * soon as it and those before it are done. The jar is written to a temporary file first, so a failed merge never
+ * leaves a partial jar behind which looks complete.
+ */
+public class ParallelJarMerger {
+	private static final int PARTITION_SIZE = 64;
+	private static final ClassMerger CLASS_MERGER = new ClassMerger();
+	private static final byte[] MANIFEST = "Manifest-Version: 1.0\nMain-Class: net.minecraft.client.Main\n".getBytes(StandardCharsets.UTF_8);
+
+	private final File inputClient;
+	private final File inputServer;
+	private final File output;
+	private boolean offsetSyntheticsParams;
+
+	public ParallelJarMerger(File inputClient, File inputServer, File output) {
+		this.inputClient = inputClient;
+		this.inputServer = inputServer;
+		this.output = output;
+	}
+
+	public void enableSyntheticParamsOffset() {
+		offsetSyntheticsParams = true;
+	}
+
+	public void merge() throws IOException {
+		ForkJoinPool pool = new ForkJoinPool();
+		Path temp = Files.createTempFile(output.getAbsoluteFile().getParentFile().toPath(), output.getName(), ".tmp");
+
+		try {
+			ForkJoinTask<Map<String, Entry>> serverRead = pool.submit(() -> read(inputServer));
+			Map<String, Entry> client = read(inputClient);
+			Map<String, Entry> server = serverRead.join();
+
+			Set<String> names = new TreeSet<>(client.keySet());
+			names.addAll(server.keySet());
+			List<String> ordered = new ArrayList<>(names);
+
+			List<ForkJoinTask<Entry[]>> partitions = new ArrayList<>();
+
+			for (int start = 0; start < ordered.size(); start += PARTITION_SIZE) {
+				List<String> partition = ordered.subList(start, Math.min(start + PARTITION_SIZE, ordered.size()));
+				partitions.add(pool.submit(() -> partition.stream().map(name -> merge(name, client.get(name), server.get(name))).toArray(Entry[]::new)));
+			}
+
+			try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				Set<String> directories = new HashSet<>();
+
+				for (ForkJoinTask<Entry[]> partition : partitions) {
+					for (Entry entry : partition.join()) {
+						if (entry != null) {
+							write(zip, directories, entry);
+						}
+					}
+				}
+			}
+
+			Files.move(temp, output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			HashingService.INSTANCE.invalidate(output);
+		} catch (RuntimeException e) {
+			//Unwrap anything thrown reading from the pool, so a corrupt jar still surfaces as its ZipException
+			for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+				if (cause instanceof UncheckedIOException) {
+					throw ((UncheckedIOException) cause).getCause();
+				}
+			}
+
+			throw e;
+		} finally {
+			pool.shutdownNow();
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static Map<String, Entry> read(File jar) {
+		Map<String, Entry> entries = new HashMap<>();
+
+		try (ZipFile zip = new ZipFile(jar)) {
+			for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+				ZipEntry entry = e.nextElement();
+				String name = entry.getName();
+
+				if (entry.isDirectory()) {
+					continue;
+				}
+
+				if ("META-INF/MANIFEST.MF".equals(name)) {
+					entries.put(name, new Entry(name, entry.getTime(), MANIFEST));
+					continue;
+				}
+
+				if (name.startsWith("META-INF/") && (name.endsWith(".SF") || name.endsWith(".RSA"))) {
+					continue;
+				}
+
+				try (InputStream in = zip.getInputStream(entry)) {
+					entries.put(name, new Entry(name, entry.getTime(), IOUtils.toByteArray(in)));
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		return entries;
+	}
+
+	private Entry merge(String name, Entry client, Entry server) {
+		boolean isClass = name.endsWith(".class");
+		boolean isMinecraft = client != null || name.startsWith("net/minecraft") || !name.contains("/");
+		Entry result;
+		String side = null;
+
+		if (client != null && server != null) {
+			if (isClass && !Arrays.equals(client.data, server.data)) {
+				result = new Entry(client.name, client.time, CLASS_MERGER.merge(client.data, server.data));
+			} else {
+				result = client;
+			}
+		} else if (client != null) {
+			result = client;
+			side = "CLIENT";
+		} else {
+			result = server;
+			side = "SERVER";
+		}
+
+		if (isClass && !isMinecraft && "SERVER".equals(side)) {
+			//Server bundles libraries, client doesn't - skip them
+			return null;
+		}
+
+		if (isMinecraft && isClass) {
+			ClassWriter writer = new ClassWriter(0);
+			ClassVisitor visitor = writer;
+
+			if (side != null) {
+				visitor = new ClassMerger.SidedClassVisitor(StitchUtil.ASM_VERSION, visitor, side);
+			}
+
+			if (offsetSyntheticsParams) {
+				visitor = new SyntheticParameterClassVisitor(StitchUtil.ASM_VERSION, visitor);
+			}
+
+			if (visitor != writer) {
+				new ClassReader(result.data).accept(visitor, 0);
+				result = new Entry(result.name, result.time, writer.toByteArray());
+			}
+		}
+
+		return result;
+	}
+
+	private static void write(ZipOutputStream zip, Set<String> directories, Entry entry) throws IOException {
+		for (int slash = entry.name.indexOf('/'); slash >= 0; slash = entry.name.indexOf('/', slash + 1)) {
+			String directory = entry.name.substring(0, slash + 1);
+
+			if (directories.add(directory)) {
+				ZipEntry zipEntry = new ZipEntry(directory);
+				zipEntry.setTime(entry.time);
+				zip.putNextEntry(zipEntry);
+				zip.closeEntry();
+			}
+		}
+
+		ZipEntry zipEntry = new ZipEntry(entry.name);
+		zipEntry.setTime(entry.time);
+		zip.putNextEntry(zipEntry);
+		zip.write(entry.data);
+		zip.closeEntry();
+	}
+
+	private static final class Entry {
+		final String name;
+		final long time;
+		final byte[] data;
+
+		Entry(String name, long time, byte[] data) {
+			this.name = name;
+			this.time = time;
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,303 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package net.fabricmc.loom.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.Project;
+import org.objectweb.asm.ClassReader;
+
+import net.fabricmc.loom.LoomGradleExtension;
+import net.fabricmc.loom.processors.dependency.ModDependencyInfo;
+import net.fabricmc.loom.providers.MinecraftMappedProvider;
+
+/**
+ * A content addressed store of remapped mods in the user cache, shared between every project and checkout.
+ *
+ * <p>A remapped mod is stored against the hash of the mod itself, the hash of the mappings it was remapped with, the
+ * Minecraft jar and its libraries, and the hashes of only those other mods on the classpath whose classes the mod
+ * refers to or extends through them. Those are all the remapper looks at to remap a mod, so two projects with different
+ * sets of mods still share any mod which doesn't depend on the mods they differ in. Anything else would give a
+ * different key, so entries never need to be invalidated, although ones which haven't been used for a while are
+ * swept away.
+ */
+public final class RemappedModStore {
+	//Bump this if the way mods are remapped changes
+	private static final int VERSION = 2;
+	private static final int CONSTANT_CLASS = 7;
+
+	private final File storeDir;
+	private final String context;
+	//Which mod on the remap classpath each class comes from
+	private final Map<String, File> classpathClasses;
+	private final Map<File, String> keys = new HashMap<>();
+
+	private RemappedModStore(File storeDir, String context, Map<String, File> classpathClasses) {
+		this.storeDir = storeDir;
+		this.context = context;
+		this.classpathClasses = classpathClasses;
+	}
+
+	public static RemappedModStore create(Project project) throws IOException {
+		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
+		MinecraftMappedProvider mappedProvider = extension.getMinecraftMappedProvider();
+		HashingService hashing = HashingService.INSTANCE;
+
+		//Sorted so the order the classpath is resolved in makes no difference
+		Set<String> minecraft = new TreeSet<>();
+		minecraft.add(HashingService.toHex(hashing.sha1(mappedProvider.getIntermediaryJar())));
+
+		for (File file : mappedProvider.getMapperPaths()) {
+			minecraft.add(HashingService.toHex(hashing.sha1(file)));
+		}
+
+		Hasher hasher = Hashing.sha256().newHasher();
+		hasher.putInt(VERSION);
+		hasher.putString(HashingService.toHex(hashing.sha1(extension.getMappingsProvider().tinyMappings)), StandardCharsets.UTF_8);
+
+		for (String hash : minecraft) {
+			hasher.putString(hash, StandardCharsets.UTF_8);
+		}
+
+		Map<String, File> classpathClasses = new HashMap<>();
+
+		for (RemappedConfigurationEntry entry : Constants.MOD_COMPILE_ENTRIES) {
+			for (File file : project.getConfigurations().getByName(entry.getSourceConfiguration()).getFiles()) {
+				indexClasses(file, classpathClasses);
+			}
+		}
+
+		File storeDir = new File(extension.getUserCache(), "remapped_mods");
+		storeDir.mkdirs();
+		CacheSweeper.sweep(storeDir.toPath());
+		return new RemappedModStore(storeDir, hasher.hash().toString(), classpathClasses);
+	}
+
+	private static void indexClasses(File jar, Map<String, File> classes) throws IOException {
+		if (!jar.isFile()) {
+			return;
+		}
+
+		try (ZipFile zip = new ZipFile(jar)) {
+			for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+				String name = entries.nextElement().getName();
+
+				if (name.endsWith(".class")) {
+					classes.putIfAbsent(name.substring(0, name.length() - 6), jar);
+				}
+			}
+		}
+	}
+
+	private File getStored(ModDependencyInfo info) throws IOException {
+		String key = keys.get(info.getInputFile());
+
+		if (key == null) {
+			Hasher hasher = Hashing.sha256().newHasher()
+					.putString(context, StandardCharsets.UTF_8)
+					.putString(HashingService.toHex(HashingService.INSTANCE.sha1(info.getInputFile())), StandardCharsets.UTF_8);
+
+			Set<String> referenced = new TreeSet<>();
+
+			for (File jar : findReferencedJars(info.getInputFile())) {
+				referenced.add(HashingService.toHex(HashingService.INSTANCE.sha1(jar)));
+			}
+
+			for (String hash : referenced) {
+				hasher.putString(hash, StandardCharsets.UTF_8);
+			}
+
+			key = hasher.hash().toString();
+			keys.put(info.getInputFile(), key);
+		}
+
+		return new File(storeDir, key + ".jar");
+	}
+
+	/**
+	 * Find the other mods on the remap classpath holding classes which the given mod refers to, along with any mods
+	 * holding what those classes extend, as the hierarchy of everything the mod refers to can change how it is remapped.
+	 */
+	private Set<File> findReferencedJars(File mod) throws IOException {
+		Set<String> seen = new HashSet<>();
+		Deque<String> queue = new ArrayDeque<>();
+
+		try (ZipFile zip = new ZipFile(mod)) {
+			for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+				ZipEntry entry = entries.nextElement();
+
+				if (entry.getName().endsWith(".class")) {
+					ClassReader reader = readClass(zip, entry);
+					seen.add(reader.getClassName());
+					addReferencedClasses(reader, queue);
+				}
+			}
+		}
+
+		Set<File> jars = new HashSet<>();
+		Map<File, ZipFile> open = new HashMap<>();
+
+		try {
+			while (!queue.isEmpty()) {
+				String name = queue.poll();
+				File jar = classpathClasses.get(name);
+
+				if (!seen.add(name) || jar == null || jar.equals(mod)) {
+					continue;
+				}
+
+				jars.add(jar);
+				ZipFile zip = open.get(jar);
+
+				if (zip == null) {
+					zip = new ZipFile(jar);
+					open.put(jar, zip);
+				}
+
+				ClassReader reader = readClass(zip, zip.getEntry(name + ".class"));
+
+				if (reader.getSuperName() != null) {
+					queue.add(reader.getSuperName());
+				}
+
+				queue.addAll(Arrays.asList(reader.getInterfaces()));
+			}
+		} finally {
+			for (ZipFile zip : open.values()) {
+				zip.close();
+			}
+		}
+
+		return jars;
+	}
+
+	private static ClassReader readClass(ZipFile zip, ZipEntry entry) throws IOException {
+		try (InputStream in = zip.getInputStream(entry)) {
+			return new ClassReader(IOUtils.toByteArray(in));
+		}
+	}
+
+	/**
+	 * Add every class named in the constant pool of the given class, which covers everything it extends, implements or
+	 * refers to a member of.
+	 */
+	private static void addReferencedClasses(ClassReader reader, Collection<String> into) {
+		char[] buffer = new char[reader.getMaxStringLength()];
+
+		for (int i = 1; i < reader.getItemCount(); i++) {
+			int offset = reader.getItem(i);
+
+			if (offset <= 0 || reader.b[offset - 1] != CONSTANT_CLASS) {
+				continue;
+			}
+
+			//A class constant is just the index of its name
+			String name = reader.readUTF8(offset, buffer);
+
+			if (name.startsWith("[")) {
+				//Array types, which only name a class if they are arrays of objects
+				int start = name.lastIndexOf('[') + 1;
+
+				if (name.charAt(start) != 'L') {
+					continue;
+				}
+
+				name = name.substring(start + 1, name.length() - 1);
+			}
+
+			into.add(name);
+		}
+	}
+
+	/**
+	 * Copy the remapped mod out of the store if it has been remapped before, unless the output already matches it.
+	 *
+	 * @return Whether the mod was in the store
+	 */
+	public boolean restore(ModDependencyInfo info) throws IOException {
+		File stored = getStored(info);
+
+		if (!stored.isFile()) {
+			return false;
+		}
+
+		CacheSweeper.markUsed(stored.toPath());
+		File output = info.getRemappedOutput();
+
+		if (output.isFile() && output.length() == stored.length()
+				&& Arrays.equals(HashingService.INSTANCE.sha1(output), HashingService.INSTANCE.sha1(stored))) {
+			return true;
+		}
+
+		Path temp = Files.createTempFile(output.getAbsoluteFile().getParentFile().toPath(), output.getName(), ".tmp");
+
+		try {
+			Files.copy(stored.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temp, output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			HashingService.INSTANCE.invalidate(output);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Add a freshly remapped mod to the store, for other projects to use.
+	 */
+	public void store(ModDependencyInfo info) throws IOException {
+		Path stored = getStored(info).toPath();
+		Path temp = Files.createTempFile(storeDir.toPath(), stored.getFileName().toString(), ".tmp");
+
+		try {
+			Files.copy(info.getRemappedOutput().toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temp, stored, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
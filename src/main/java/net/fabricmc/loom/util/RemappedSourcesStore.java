@@ -0,0 +1,142 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package net.fabricmc.loom.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import com.google.common.hash.Hashing;
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+
+import net.fabricmc.loom.LoomGradleExtension;
+
+/**
+ * A content addressed store of remapped sources jars in the user cache, shared between every project and checkout.
+ *
+ * <p>Remapped sources are stored against the hash of the original sources, the hash of the mappings they were remapped
+ * with and which way they were remapped. Sources which Mercury could only partly remap are stored too, flagged as such
+ * so they are reported each time they are used rather than being remapped again to the same end. Entries which haven't
+ * been used for a while are swept away.
+ */
+public final class RemappedSourcesStore {
+	//Bump this if the way sources are remapped changes
+	private static final int VERSION = 1;
+
+	private final Logger logger;
+	private final File storeDir;
+	private final String context;
+
+	private RemappedSourcesStore(Logger logger, File storeDir, String context) {
+		this.logger = logger;
+		this.storeDir = storeDir;
+		this.context = context;
+	}
+
+	public static RemappedSourcesStore create(Project project, boolean toNamed) throws IOException {
+		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
+		String mappings = HashingService.toHex(HashingService.INSTANCE.sha1(extension.getMappingsProvider().tinyMappings));
+		String context = Hashing.sha256().newHasher()
+				.putInt(VERSION)
+				.putBoolean(toNamed)
+				.putString(mappings, StandardCharsets.UTF_8)
+				.hash().toString();
+
+		File storeDir = new File(extension.getUserCache(), "remapped_sources");
+		storeDir.mkdirs();
+		CacheSweeper.sweep(storeDir.toPath());
+		return new RemappedSourcesStore(project.getLogger(), storeDir, context);
+	}
+
+	private File getStored(File sources, boolean complete) throws IOException {
+		String input = HashingService.toHex(HashingService.INSTANCE.sha1(sources));
+		String key = Hashing.sha256().newHasher()
+				.putString(context, StandardCharsets.UTF_8)
+				.putString(input, StandardCharsets.UTF_8)
+				.hash().toString();
+		return new File(storeDir, key + (complete ? ".jar" : "-partial.jar"));
+	}
+
+	/**
+	 * Copy the remapped sources out of the store if they have been remapped before, unless they are already there.
+	 *
+	 * @return Whether the sources were in the store
+	 */
+	public boolean restore(File sources, File remapped) throws IOException {
+		File stored = getStored(sources, true);
+
+		if (!stored.isFile()) {
+			stored = getStored(sources, false);
+
+			if (!stored.isFile()) {
+				return false;
+			}
+
+			logger.warn("Could not remap " + sources.getName() + " fully before, using the partly remapped sources");
+		}
+
+		CacheSweeper.markUsed(stored.toPath());
+
+		if (remapped.isFile() && remapped.length() == stored.length()
+				&& Arrays.equals(HashingService.INSTANCE.sha1(remapped), HashingService.INSTANCE.sha1(stored))) {
+			return true;
+		}
+
+		Path temp = Files.createTempFile(remapped.getAbsoluteFile().getParentFile().toPath(), remapped.getName(), ".tmp");
+
+		try {
+			Files.copy(stored.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temp, remapped.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			HashingService.INSTANCE.invalidate(remapped);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Add freshly remapped sources to the store, for other projects to use.
+	 *
+	 * @param complete Whether Mercury remapped all of the sources
+	 */
+	public void store(File sources, File remapped, boolean complete) throws IOException {
+		Path stored = getStored(sources, complete).toPath();
+		Path temp = Files.createTempFile(storeDir.toPath(), stored.getFileName().toString(), ".tmp");
+
+		try {
+			Files.copy(remapped.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temp, stored, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
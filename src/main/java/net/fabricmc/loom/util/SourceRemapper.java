@@ -26,29 +26,43 @@ package net.fabricmc.loom.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.List;
-import java.util.function.Consumer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.cadixdev.lorenz.MappingSet;
 import org.cadixdev.mercury.Mercury;
 import org.cadixdev.mercury.remapper.MercuryRemapper;
 import org.gradle.api.Project;
-import org.zeroturnaround.zip.ZipUtil;
 
 import net.fabricmc.loom.LoomGradleExtension;
-import net.fabricmc.loom.providers.MappingsProvider;
 import net.fabricmc.loom.util.progress.ProgressLogger;
+import net.fabricmc.loom.util.zip.ZipWriter;
 import net.fabricmc.lorenztiny.TinyMappingsReader;
 import net.fabricmc.mapping.tree.TinyTree;
 import net.fabricmc.stitch.util.StitchUtil;
 
 public class SourceRemapper {
+	//Roughly what a Mercury worker needs for its own mappings and the parsed sources of a mod
+	private static final long WORKER_MEMORY = 768L * 1024 * 1024;
+
 	private final Project project;
 	private final boolean toNamed;
-	private final List<Consumer<ProgressLogger>> remapTasks = new ArrayList<>();
+	private final List<RemapTask> remapTasks = new ArrayList<>();
 
 	private Mercury mercury;
 
@@ -64,25 +78,62 @@ public class SourceRemapper {
 	}
 
 	public void scheduleRemapSources(File source, File destination) throws Exception {
-		remapTasks.add((logger) -> {
-			try {
-				logger.progress("remapping sources - " + source.getName());
-				remapSourcesInner(source, destination);
-			} catch (Exception e) {
-				throw new RuntimeException("Failed to remap sources for " + source, e);
-			}
-		});
+		scheduleRemapSources(source, destination, null);
+	}
+
+	/**
+	 * Schedule the given sources to be remapped, taking them from the store instead if they have been remapped before.
+	 * Sources which could only be partly remapped are stored as such, so they are not remapped again every time.
+	 */
+	public void scheduleRemapSources(File source, File destination, RemappedSourcesStore store) {
+		remapTasks.add(new RemapTask(source, destination, store));
+	}
+
+	public boolean hasScheduled() {
+		return !remapTasks.isEmpty();
 	}
 
 	public void remapAll() {
-		if (!remapTasks.isEmpty()) {
-			project.getLogger().lifecycle(":remapping sources");
+		remap(new ArrayList<>(remapTasks));
+		remapTasks.clear();
+	}
+
+	/**
+	 * Remap only the scheduled sources whose destination matches the filter, leaving the rest to be remapped later.
+	 */
+	public void remapMatching(Predicate<File> filter) {
+		List<RemapTask> matching = remapTasks.stream().filter(task -> filter.test(task.destination)).collect(Collectors.toList());
+		remap(matching);
+		remapTasks.removeAll(matching);
+	}
+
+	private void remap(List<RemapTask> tasks) {
+		List<RemapTask> pending = new ArrayList<>();
+
+		for (RemapTask task : tasks) {
+			if (!restore(task)) {
+				pending.add(task);
+			}
+		}
+
+		if (pending.isEmpty()) {
+			return;
 		}
 
+		project.getLogger().lifecycle(":remapping sources");
+
 		ProgressLogger progressLogger = ProgressLogger.getProgressFactory(project, SourceRemapper.class.getName());
 		progressLogger.start("Remapping dependency sources", "sources");
 
-		remapTasks.forEach(consumer -> consumer.accept(progressLogger));
+		int workers = getWorkerCount(pending.size());
+
+		if (workers <= 1) {
+			for (RemapTask task : pending) {
+				remap(task, getMercuryInstance(), progressLogger);
+			}
+		} else {
+			remapInParallel(pending, workers, progressLogger);
+		}
 
 		progressLogger.completed();
 
@@ -90,9 +141,113 @@ public class SourceRemapper {
 		System.gc();
 	}
 
-	private void remapSourcesInner(File source, File destination) throws Exception {
+	private boolean restore(RemapTask task) {
+		if (task.store == null) {
+			return false;
+		}
+
+		try {
+			if (task.store.restore(task.source, task.destination)) {
+				project.getLogger().info(task.destination.getName() + " is up to date with " + task.source.getName());
+				return true;
+			}
+		} catch (IOException e) {
+			project.getLogger().warn("Failed to restore remapped sources " + task.destination.getName(), e);
+		}
+
+		return false;
+	}
+
+	private int getWorkerCount(int tasks) {
+		int byMemory = (int) Math.max(1, Runtime.getRuntime().maxMemory() / WORKER_MEMORY);
+		return Math.min(tasks, Math.min(Runtime.getRuntime().availableProcessors(), byMemory));
+	}
+
+	private void remapInParallel(List<RemapTask> tasks, int workers, ProgressLogger progressLogger) {
+		//Made up front on this thread, as they need the project and the mappings cache which are only safe to use from it
+		Mercury first = getMercuryInstance();
+		Queue<Mercury> idle = new ConcurrentLinkedQueue<>();
+		idle.add(first);
+
+		for (int i = 1; i < workers; i++) {
+			idle.add(createWorkerMercury(first));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+
+		try {
+			List<Future<Void>> remaps = new ArrayList<>();
+
+			for (RemapTask task : tasks) {
+				remaps.add(executor.submit(() -> {
+					//There is one for each thread, and each is only taken by the task running on it
+					Mercury mercury = idle.poll();
+
+					try {
+						remap(task, mercury, progressLogger);
+					} finally {
+						idle.add(mercury);
+					}
+
+					return null;
+				}));
+			}
+
+			//Wait for everything to finish before failing so nothing is left writing
+			Throwable failure = null;
+
+			for (Future<Void> remap : remaps) {
+				try {
+					remap.get();
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause();
+					} else {
+						failure.addSuppressed(e.getCause());
+					}
+				}
+			}
+
+			if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			} else if (failure != null) {
+				throw new RuntimeException(failure);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted remapping sources", e);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void remap(RemapTask task, Mercury mercury, ProgressLogger progressLogger) {
+		synchronized (progressLogger) {
+			progressLogger.progress("remapping sources - " + task.source.getName());
+		}
+
+		boolean complete;
+
+		try {
+			complete = remapSourcesInner(task.source, task.destination, mercury);
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to remap sources for " + task.source, e);
+		}
+
+		if (task.store != null) {
+			try {
+				task.store.store(task.source, task.destination, complete);
+			} catch (IOException e) {
+				project.getLogger().warn("Failed to store remapped sources " + task.destination.getName(), e);
+			}
+		}
+	}
+
+	/**
+	 * @return Whether Mercury managed to remap all of the sources
+	 */
+	private boolean remapSourcesInner(File source, File destination, Mercury mercury) throws Exception {
 		project.getLogger().info(":remapping source jar");
-		Mercury mercury = getMercuryInstance();
 
 		if (source.equals(destination)) {
 			if (source.isDirectory()) {
@@ -108,16 +263,14 @@ public class SourceRemapper {
 			}
 		}
 
-		Path srcPath = source.toPath();
-		boolean isSrcTmp = false;
-
-		if (!source.isDirectory()) {
-			// create tmp directory
-			isSrcTmp = true;
-			srcPath = Files.createTempDirectory("fabric-loom-src");
-			ZipUtil.unpack(source, srcPath.toFile());
+		if (source.isDirectory()) {
+			return remapDirectory(source, destination, mercury);
+		} else {
+			return remapJar(source, destination, mercury);
 		}
+	}
 
+	private boolean remapDirectory(File source, File destination, Mercury mercury) throws Exception {
 		if (!destination.isDirectory() && destination.exists()) {
 			if (!destination.delete()) {
 				throw new RuntimeException("Could not delete " + destination.getName() + "!");
@@ -127,20 +280,111 @@ public class SourceRemapper {
 		StitchUtil.FileSystemDelegate dstFs = destination.isDirectory() ? null : StitchUtil.getJarFileSystem(destination, true);
 		Path dstPath = dstFs != null ? dstFs.get().getPath("/") : destination.toPath();
 
+		boolean complete = rewrite(mercury, source, source.toPath(), dstPath);
+		copyNonJavaFiles(source.toPath(), dstPath, project, source);
+
+		if (dstFs != null) {
+			dstFs.close();
+		}
+
+		return complete;
+	}
+
+	private boolean rewrite(Mercury mercury, File source, Path srcPath, Path dstPath) {
 		try {
 			mercury.rewrite(srcPath, dstPath);
+			return true;
 		} catch (Exception e) {
 			project.getLogger().warn("Could not remap " + source.getName() + " fully!", e);
+			return false;
 		}
+	}
 
-		copyNonJavaFiles(srcPath, dstPath, project, source);
+	/**
+	 * Remap a sources jar. Only the resources are streamed: Mercury hands JDT the paths of the files to parse and writes
+	 * what it rewrites to a directory, so the Java files still go through disk both ways. Everything else is copied
+	 * straight from the input jar into the output jar along with the remapped sources.
+	 */
+	private boolean remapJar(File source, File destination, Mercury mercury) throws Exception {
+		Path srcPath = Files.createTempDirectory("fabric-loom-src");
+		//Mercury writes to a directory rather than the jar, so the jar can be written in one go with the resources
+		Path dstPath = destination.isDirectory() ? destination.toPath() : Files.createTempDirectory("fabric-loom-src-out");
 
-		if (dstFs != null) {
-			dstFs.close();
-		}
+		try {
+			extractJavaFiles(source, srcPath);
+			boolean complete = rewrite(mercury, source, srcPath, dstPath);
+
+			if (destination.isDirectory()) {
+				copyNonJavaFiles(source, dstPath);
+				return complete;
+			}
 
-		if (isSrcTmp) {
+			try (ZipWriter writer = new ZipWriter(destination.toPath())) {
+				//Resources go first so the manifest stays at the front, where JarInputStream expects it
+				writer.copy(source.toPath(), name -> !isJavaFile(name));
+				List<Path> remapped;
+
+				try (Stream<Path> files = Files.walk(dstPath)) {
+					remapped = files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+				}
+
+				for (Path file : remapped) {
+					writer.write(dstPath.relativize(file).toString().replace(File.separatorChar, '/'), Files.readAllBytes(file));
+				}
+
+				writer.finish();
+			}
+
+			return complete;
+		} finally {
 			Files.walkFileTree(srcPath, new DeletingFileVisitor());
+
+			if (!destination.isDirectory()) {
+				Files.walkFileTree(dstPath, new DeletingFileVisitor());
+			}
+		}
+	}
+
+	private static void extractJavaFiles(File source, Path to) throws IOException {
+		try (ZipFile zip = new ZipFile(source)) {
+			for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+				ZipEntry entry = entries.nextElement();
+
+				if (entry.isDirectory() || !isJavaFile(entry.getName())) {
+					continue;
+				}
+
+				Path target = to.resolve(entry.getName()).normalize();
+
+				if (!target.startsWith(to)) {
+					throw new IOException("Entry " + entry.getName() + " is outside of " + source.getName());
+				}
+
+				Files.createDirectories(target.getParent());
+
+				try (InputStream in = zip.getInputStream(entry)) {
+					Files.copy(in, target);
+				}
+			}
+		}
+	}
+
+	private static void copyNonJavaFiles(File source, Path to) throws IOException {
+		try (ZipFile zip = new ZipFile(source)) {
+			for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+				ZipEntry entry = entries.nextElement();
+				Path target = to.resolve(entry.getName()).normalize();
+
+				if (entry.isDirectory() || isJavaFile(entry.getName()) || !target.startsWith(to) || Files.exists(target)) {
+					continue;
+				}
+
+				Files.createDirectories(target.getParent());
+
+				try (InputStream in = zip.getInputStream(entry)) {
+					Files.copy(in, target);
+				}
+			}
 		}
 	}
 
@@ -150,16 +394,9 @@ public class SourceRemapper {
 		}
 
 		LoomGradleExtension extension = project.getExtensions().getByType(LoomGradleExtension.class);
-		MappingsProvider mappingsProvider = extension.getMappingsProvider();
-
 		MappingSet mappings = extension.getOrCreateSrcMappingCache(toNamed ? 1 : 0, () -> {
-			try {
-				TinyTree m = mappingsProvider.getMappings();
-				project.getLogger().lifecycle(":loading " + (toNamed ? "intermediary -> named" : "named -> intermediary") + " source mappings");
-				return new TinyMappingsReader(m, toNamed ? "intermediary" : "named", toNamed ? "named" : "intermediary").read();
-			} catch (Exception e) {
-				throw new RuntimeException(e);
-			}
+			project.getLogger().lifecycle(":loading " + (toNamed ? "intermediary -> named" : "named -> intermediary") + " source mappings");
+			return readMappings();
 		});
 
 		Mercury mercury = extension.getOrCreateSrcMercuryCache(toNamed ? 1 : 0, () -> {
@@ -183,6 +420,29 @@ public class SourceRemapper {
 		return mercury;
 	}
 
+	/**
+	 * Create another Mercury with the same classpath as the given one, for remapping on another thread. This has to be
+	 * called from the thread the remapper is being used on, not the worker.
+	 *
+	 * <p>Mercury fills in inherited members of the mappings as it goes, so each worker has its own copy of them rather
+	 * than sharing the cached set.
+	 */
+	private Mercury createWorkerMercury(Mercury template) {
+		Mercury m = new Mercury();
+		m.getClassPath().addAll(template.getClassPath());
+		m.getProcessors().add(MercuryRemapper.create(readMappings()));
+		return m;
+	}
+
+	private MappingSet readMappings() {
+		try {
+			TinyTree m = project.getExtensions().getByType(LoomGradleExtension.class).getMappingsProvider().getMappings();
+			return new TinyMappingsReader(m, toNamed ? "intermediary" : "named", toNamed ? "named" : "intermediary").read();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	private static void copyNonJavaFiles(Path from, Path to, Project project, File source) throws IOException {
 		Files.walk(from).forEach(path -> {
 			Path targetPath = to.resolve(from.relativize(path).toString());
@@ -220,8 +480,23 @@ public class SourceRemapper {
 	}
 
 	private static boolean isJavaFile(Path path) {
-		String name = path.getFileName().toString();
+		return isJavaFile(path.getFileName().toString());
+	}
+
+	private static boolean isJavaFile(String name) {
 		// ".java" is not a valid java file
-		return name.endsWith(".java") && name.length() != 5;
+		return name.endsWith(".java") && !name.endsWith("/.java") && name.length() != 5;
+	}
+
+	private static final class RemapTask {
+		final File source;
+		final File destination;
+		final RemappedSourcesStore store;
+
+		RemapTask(File source, File destination, RemappedSourcesStore store) {
+			this.source = source;
+			this.destination = destination;
+			this.store = store;
+		}
 	}
 }
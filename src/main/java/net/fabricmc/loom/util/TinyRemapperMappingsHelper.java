@@ -24,6 +24,7 @@
 
 package net.fabricmc.loom.util;
 
+import net.fabricmc.loom.util.mappings.CompactMappings;
 import net.fabricmc.mapping.tree.ClassDef;
 import net.fabricmc.mapping.tree.FieldDef;
 import net.fabricmc.mapping.tree.LocalVariableDef;
@@ -68,4 +69,34 @@ public class TinyRemapperMappingsHelper {
 			}
 		};
 	}
+
+	public static IMappingProvider create(CompactMappings mappings, String from, String to, boolean remapLocalVariables) {
+		return (acceptor) -> {
+			for (CompactMappings.ClassEntry classEntry : mappings.getClasses()) {
+				String className = classEntry.getName(from);
+				acceptor.acceptClass(className, classEntry.getName(to));
+
+				for (CompactMappings.FieldEntry field : classEntry.getFields()) {
+					acceptor.acceptField(memberOf(className, field.getName(from), field.getDescriptor(from)), field.getName(to));
+				}
+
+				for (CompactMappings.MethodEntry method : classEntry.getMethods()) {
+					IMappingProvider.Member methodIdentifier = memberOf(className, method.getName(from), method.getDescriptor(from));
+					acceptor.acceptMethod(methodIdentifier, method.getName(to));
+
+					if (remapLocalVariables) {
+						for (CompactMappings.ParameterEntry parameter : method.getParameters()) {
+							acceptor.acceptMethodArg(methodIdentifier, parameter.getLocalVariableIndex(), parameter.getName(to));
+						}
+
+						for (CompactMappings.LocalVariableEntry localVariable : method.getLocalVariables()) {
+							acceptor.acceptMethodVar(methodIdentifier, localVariable.getLocalVariableIndex(),
+											localVariable.getLocalVariableStartOffset(), localVariable.getLocalVariableTableIndex(),
+											localVariable.getName(to));
+						}
+					}
+				}
+			}
+		};
+	}
 }
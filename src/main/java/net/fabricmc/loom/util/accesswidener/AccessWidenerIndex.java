@@ -0,0 +1,149 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package net.fabricmc.loom.util.accesswidener;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.fabricmc.loom.util.accesswidener.AccessWidener.Access;
+import net.fabricmc.loom.util.accesswidener.AccessWidener.ClassAccess;
+import net.fabricmc.loom.util.accesswidener.AccessWidener.FieldAccess;
+import net.fabricmc.loom.util.accesswidener.AccessWidener.MethodAccess;
+import net.fabricmc.mappings.EntryTriple;
+
+/**
+ * An immutable view of an {@link AccessWidener} laid out for looking up while classes are transformed.
+ *
+ * <p>Rules are grouped by the class they belong to, then by member name and descriptor, so a lookup never needs to
+ * allocate a key. Each owner name is only held once however many rules name it, which keeps the index small when many
+ * access wideners have been merged together.
+ */
+public final class AccessWidenerIndex {
+	private final Map<String, Access> classAccess;
+	private final Map<String, ClassEntry> classes;
+
+	private AccessWidenerIndex(Map<String, Access> classAccess, Map<String, ClassEntry> classes) {
+		this.classAccess = classAccess;
+		this.classes = classes;
+	}
+
+	public static AccessWidenerIndex of(AccessWidener accessWidener) {
+		Map<String, Access> classAccess = new HashMap<>();
+
+		for (Map.Entry<String, Access> entry : accessWidener.classAccess.entrySet()) {
+			if (entry.getValue() != ClassAccess.DEFAULT) {
+				classAccess.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		Map<String, ClassEntry> classes = new HashMap<>();
+
+		for (Map.Entry<EntryTriple, Access> entry : accessWidener.fieldAccess.entrySet()) {
+			classes.computeIfAbsent(entry.getKey().getOwner(), k -> new ClassEntry()).fields.add(entry.getKey(), entry.getValue());
+		}
+
+		for (Map.Entry<EntryTriple, Access> entry : accessWidener.methodAccess.entrySet()) {
+			classes.computeIfAbsent(entry.getKey().getOwner(), k -> new ClassEntry()).methods.add(entry.getKey(), entry.getValue());
+		}
+
+		return new AccessWidenerIndex(classAccess, classes);
+	}
+
+	public Access getClassAccess(String className) {
+		return classAccess.getOrDefault(className, ClassAccess.DEFAULT);
+	}
+
+	/**
+	 * Get the member rules for the given class.
+	 *
+	 * @return The rules, or {@code null} if none of the class's members are widened
+	 */
+	public ClassEntry getClass(String className) {
+		return classes.get(className);
+	}
+
+	public static final class ClassEntry {
+		private final MemberTable fields = new MemberTable();
+		private final MemberTable methods = new MemberTable();
+
+		private ClassEntry() { }
+
+		public Access getFieldAccess(String name, String descriptor) {
+			return fields.get(name, descriptor, FieldAccess.DEFAULT);
+		}
+
+		public Access getMethodAccess(String name, String descriptor) {
+			return methods.get(name, descriptor, MethodAccess.DEFAULT);
+		}
+
+		/**
+		 * Every field rule, keyed by the name and descriptor joined together, in a stable order.
+		 */
+		public Map<String, Access> getFields() {
+			return fields.flatten();
+		}
+
+		/**
+		 * Every method rule, keyed by the name and descriptor joined together, in a stable order.
+		 */
+		public Map<String, Access> getMethods() {
+			return methods.flatten();
+		}
+	}
+
+	private static final class MemberTable {
+		//Most names have a single descriptor, so the inner maps stay tiny
+		private final Map<String, Map<String, Access>> members = new HashMap<>();
+
+		void add(EntryTriple triple, Access access) {
+			members.computeIfAbsent(triple.getName(), k -> new HashMap<>(2)).put(triple.getDesc(), access);
+		}
+
+		Access get(String name, String descriptor, Access fallback) {
+			Map<String, Access> descriptors = members.get(name);
+
+			if (descriptors == null) {
+				return fallback;
+			}
+
+			return descriptors.getOrDefault(descriptor, fallback);
+		}
+
+		Map<String, Access> flatten() {
+			Map<String, Access> flat = new TreeMap<>();
+
+			for (Map.Entry<String, Map<String, Access>> name : members.entrySet()) {
+				for (Map.Entry<String, Access> descriptor : name.getValue().entrySet()) {
+					flat.put(name.getKey() + descriptor.getKey(), descriptor.getValue());
+				}
+			}
+
+			return Collections.unmodifiableMap(flat);
+		}
+	}
+}
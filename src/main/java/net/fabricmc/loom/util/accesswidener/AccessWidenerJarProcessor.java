@@ -32,32 +32,33 @@ import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
-import java.util.zip.ZipEntry;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
 
+import com.google.common.hash.Hasher;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import org.gradle.api.Project;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.commons.Remapper;
 import org.zeroturnaround.zip.ZipUtil;
-import org.zeroturnaround.zip.transform.ByteArrayZipEntryTransformer;
-import org.zeroturnaround.zip.transform.ZipEntryTransformer;
-import org.zeroturnaround.zip.transform.ZipEntryTransformerEntry;
 
-import net.fabricmc.mappings.EntryTriple;
 import net.fabricmc.loom.LoomGradleExtension;
-import net.fabricmc.loom.util.Checksum;
-import net.fabricmc.loom.processors.JarProcessor;
+import net.fabricmc.loom.util.HashingService;
+import net.fabricmc.loom.processors.ClassProcessor;
+import net.fabricmc.loom.util.zip.ZipEdit;
 import net.fabricmc.tinyremapper.TinyRemapper;
 
-public class AccessWidenerJarProcessor implements JarProcessor {
+public class AccessWidenerJarProcessor implements ClassProcessor {
 	private AccessWidener accessWidener = new AccessWidener();
+	private AccessWidenerIndex index;
 	private Project project;
 	private byte[] inputHash;
 
@@ -70,7 +71,11 @@ public class AccessWidenerJarProcessor implements JarProcessor {
 			throw new RuntimeException("Could not find access widener file @ " + loomGradleExtension.accessWidener.getAbsolutePath());
 		}
 
-		inputHash = Checksum.sha256(loomGradleExtension.accessWidener);
+		try {
+			inputHash = HashingService.INSTANCE.sha256(loomGradleExtension.accessWidener);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to hash project access widener file", e);
+		}
 
 		try (BufferedReader reader = new BufferedReader(new FileReader(loomGradleExtension.accessWidener))) {
 			accessWidener.read(reader);
@@ -92,38 +97,62 @@ public class AccessWidenerJarProcessor implements JarProcessor {
 				throw new RuntimeException("Failed to remap access widener", e);
 			}
 		}
+
+		index = AccessWidenerIndex.of(accessWidener);
 	}
 
 	@Override
-	public void process(File file, File annotationProcessorJar) {
-		project.getLogger().lifecycle("Processing file: " + file.getName());
-		ZipUtil.transformEntries(file, getTransformers(accessWidener.getTargets()));
-		ZipUtil.addEntry(file, "aw.sha256", inputHash);
+	public Set<String> getTargets() {
+		return accessWidener.getTargets().stream().map(className -> className.replace('.', '/')).collect(Collectors.toSet());
 	}
 
-	private ZipEntryTransformerEntry[] getTransformers(Set<String> classes) {
-		return classes.stream()
-				.map(string -> new ZipEntryTransformerEntry(string.replaceAll("\\.", "/") + ".class", getTransformer(string)))
-				.toArray(ZipEntryTransformerEntry[]::new);
+	@Override
+	public ClassVisitor createVisitor(String className, ClassVisitor next) {
+		project.getLogger().debug("Applying access widener to " + className);
+		return new AccessTransformer(next);
 	}
 
-	private ZipEntryTransformer getTransformer(String className) {
-		return new ByteArrayZipEntryTransformer() {
+	@Override
+	public boolean fingerprint(String className, ClassReader reader, Hasher hasher) {
+		//The access of any inner class the class refers to is changed too
+		Set<String> classes = new TreeSet<>();
+		classes.add(className);
+		reader.accept(new ClassVisitor(Opcodes.ASM7) {
 			@Override
-			protected byte[] transform(ZipEntry zipEntry, byte[] input) {
-				ClassReader reader = new ClassReader(input);
-				ClassWriter writer = new ClassWriter(0);
+			public void visitInnerClass(String name, String outerName, String innerName, int access) {
+				classes.add(name);
+			}
+		}, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
 
-				project.getLogger().lifecycle("Applying access widener to " + className);
+		for (String name : classes) {
+			hasher.putString(name, StandardCharsets.UTF_8).putString(index.getClassAccess(name).toString(), StandardCharsets.UTF_8);
+		}
 
-				reader.accept(new AccessTransformer(writer), 0);
-				return writer.toByteArray();
-			}
-		};
+		AccessWidenerIndex.ClassEntry entry = index.getClass(className);
+
+		if (entry != null) {
+			putMembers(hasher, entry.getFields());
+			putMembers(hasher, entry.getMethods());
+		}
+
+		return true;
 	}
 
-	//Called when remapping the mod
-	public void remapAccessWidener(Path modJarPath, Remapper asmRemapper) throws IOException {
+	private static void putMembers(Hasher hasher, Map<String, AccessWidener.Access> members) {
+		hasher.putInt(members.size());
+
+		for (Map.Entry<String, AccessWidener.Access> member : members.entrySet()) {
+			hasher.putString(member.getKey(), StandardCharsets.UTF_8).putString(member.getValue().toString(), StandardCharsets.UTF_8);
+		}
+	}
+
+	@Override
+	public Map<String, byte[]> getExtraEntries() {
+		return Collections.singletonMap("aw.sha256", inputHash);
+	}
+
+	//Called when remapping the mod, the remapped access widener is written when the edit is committed
+	public void remapAccessWidener(ZipEdit edit, Path modJarPath, Remapper asmRemapper) throws IOException {
 		AccessWidenerRemapper remapper = new AccessWidenerRemapper(accessWidener, asmRemapper, "intermediary");
 		AccessWidener remapped = remapper.remap();
 
@@ -138,11 +167,11 @@ public class AccessWidenerJarProcessor implements JarProcessor {
 			throw new RuntimeException("Failed to find accessWidener in fabric.mod.json");
 		}
 
-		boolean replaced = ZipUtil.replaceEntry(modJarPath.toFile(), path, bytes);
-
-		if (!replaced) {
+		if (!ZipUtil.containsEntry(modJarPath.toFile(), path)) {
 			project.getLogger().warn("Failed to replace access widener file at " + path);
 		}
+
+		edit.replace(path, bytes);
 	}
 
 	private String getAccessWidenerPath(Path modJarPath) {
@@ -175,6 +204,8 @@ public class AccessWidenerJarProcessor implements JarProcessor {
 	private class AccessTransformer extends ClassVisitor {
 		private String className;
 		private int classAccess;
+		//Null when none of the class's members are widened
+		private AccessWidenerIndex.ClassEntry members;
 
 		private AccessTransformer(ClassVisitor classVisitor) {
 			super(Opcodes.ASM7, classVisitor);
@@ -184,9 +215,10 @@ public class AccessWidenerJarProcessor implements JarProcessor {
 		public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
 			className = name;
 			classAccess = access;
+			members = index.getClass(name);
 			super.visit(
 					version,
-					accessWidener.getClassAccess(name).apply(access, name, classAccess),
+					index.getClassAccess(name).apply(access, name, classAccess),
 					name,
 					signature,
 					superName,
@@ -200,14 +232,18 @@ public class AccessWidenerJarProcessor implements JarProcessor {
 					name,
 					outerName,
 					innerName,
-					accessWidener.getClassAccess(name).apply(access, name, classAccess)
+					index.getClassAccess(name).apply(access, name, classAccess)
 			);
 		}
 
 		@Override
 		public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+			if (members == null) {
+				return super.visitField(access, name, descriptor, signature, value);
+			}
+
 			return super.visitField(
-					accessWidener.getFieldAccess(new EntryTriple(className, name, descriptor)).apply(access, name, classAccess),
+					members.getFieldAccess(name, descriptor).apply(access, name, classAccess),
 					name,
 					descriptor,
 					signature,
@@ -217,8 +253,12 @@ public class AccessWidenerJarProcessor implements JarProcessor {
 
 		@Override
 		public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+			if (members == null) {
+				return super.visitMethod(access, name, descriptor, signature, exceptions);
+			}
+
 			return new AccessWidenerMethodVisitor(super.visitMethod(
-					accessWidener.getMethodAccess(new EntryTriple(className, name, descriptor)).apply(access, name, classAccess),
+					members.getMethodAccess(name, descriptor).apply(access, name, classAccess),
 					name,
 					descriptor,
 					signature,
@@ -234,9 +274,7 @@ public class AccessWidenerJarProcessor implements JarProcessor {
 			@Override
 			public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
 				if (opcode == Opcodes.INVOKESPECIAL && owner.equals(className) && !name.equals("<init>")) {
-					AccessWidener.Access methodAccess = accessWidener.getMethodAccess(new EntryTriple(owner, name, descriptor));
-
-					if (methodAccess != AccessWidener.MethodAccess.DEFAULT) {
+					if (members.getMethodAccess(name, descriptor) != AccessWidener.MethodAccess.DEFAULT) {
 						opcode = Opcodes.INVOKEVIRTUAL;
 					}
 				}
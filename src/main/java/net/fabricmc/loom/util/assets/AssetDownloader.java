@@ -0,0 +1,254 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.assets;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.IOUtils;
+import org.gradle.api.Project;
+
+import net.fabricmc.loom.util.HashingService;
+import net.fabricmc.loom.util.progress.ProgressLogger;
+
+/**
+ * Downloads a set of content addressed asset objects in parallel.
+ *
+ * <p>Work is split into small batches on a work-stealing pool, each worker fetching its batch over the same
+ * keep-alive connection as the JVM's HTTP client will reuse a connection once its response has been fully read.
+ * The JVM only keeps {@link #KEEP_ALIVE_CONNECTIONS} idle connections per host, so the parallelism is capped to that
+ * as any more threads would open a new connection for most of their downloads. Objects are content addressed, so
+ * they are checked against their hash before being queued rather than with conditional requests.
+ *
+ * <p>The first failure stops any batches which have yet to start and is rethrown from {@link #downloadAll()}.
+ */
+public class AssetDownloader {
+	//Read once by the JVM when its keep-alive cache is first used, defaulting to 5
+	public static final int KEEP_ALIVE_CONNECTIONS = Integer.getInteger("http.maxConnections", 5);
+	private static final int BATCH_SIZE = 32;
+
+	private final Project project;
+	private final int parallelism;
+	private final Map<File, Download> downloads = new LinkedHashMap<>();
+
+	private final Deque<ProgressLogger> loggers = new ConcurrentLinkedDeque<>();
+	private final AtomicReference<IOException> failure = new AtomicReference<>();
+	private final AtomicInteger downloaded = new AtomicInteger();
+	private final AtomicLong downloadedBytes = new AtomicLong();
+
+	public AssetDownloader(Project project, int parallelism) {
+		this.project = project;
+		this.parallelism = Math.max(Math.min(parallelism, KEEP_ALIVE_CONNECTIONS), 1);
+
+		if (parallelism > KEEP_ALIVE_CONNECTIONS) {
+			project.getLogger().info(":only downloading assets on " + KEEP_ALIVE_CONNECTIONS + " threads, raise http.maxConnections to use " + parallelism);
+		}
+	}
+
+	/**
+	 * Queue an asset to be downloaded, duplicate targets are only downloaded once.
+	 *
+	 * @param name The name of the asset, used for logging
+	 * @param from The URL to download the asset from
+	 * @param to The file to save the asset to
+	 * @param size The expected size of the asset in bytes, or <code>0</code> if unknown
+	 */
+	public void queue(String name, URL from, File to, long size) {
+		downloads.putIfAbsent(to, new Download(name, from, to, size));
+	}
+
+	public boolean isEmpty() {
+		return downloads.isEmpty();
+	}
+
+	/**
+	 * Download all of the queued assets, blocking until they are either all done or one has failed.
+	 *
+	 * @throws IOException If any of the assets fail to download
+	 */
+	public void downloadAll() throws IOException {
+		if (downloads.isEmpty()) {
+			return;
+		}
+
+		List<Download> pending = new ArrayList<>(downloads.values());
+		downloads.clear();
+
+		ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, pending.size()));
+		long start = System.nanoTime();
+
+		try {
+			pool.invoke(new DownloadBatch(pending, 0, pending.size()));
+		} finally {
+			pool.shutdownNow();
+			loggers.forEach(ProgressLogger::completed);
+			loggers.clear();
+		}
+
+		IOException e = failure.get();
+
+		if (e != null) {
+			throw e;
+		}
+
+		double seconds = Math.max(System.nanoTime() - start, 1) / 1_000_000_000D;
+		double megabytes = downloadedBytes.get() / (1024D * 1024D);
+		project.getLogger().lifecycle(String.format(":downloaded %d assets (%.2f MB) in %.1fs - %.1f objects/s, %.2f MB/s",
+				downloaded.get(), megabytes, seconds, downloaded.get() / seconds, megabytes / seconds));
+	}
+
+	private void download(Download download, ProgressLogger progressLogger) throws IOException {
+		String assetName = download.name;
+		int end = assetName.lastIndexOf("/") + 1;
+
+		if (end > 0) {
+			assetName = assetName.substring(end);
+		}
+
+		project.getLogger().debug(":downloading asset " + assetName);
+		progressLogger.progress(String.format("%-30.30s", assetName) + " - " + download.to.getName());
+
+		HttpURLConnection connection = (HttpURLConnection) download.from.openConnection();
+		int code = connection.getResponseCode();
+
+		if (code < 200 || code > 299) {
+			//Read out the error so the connection can go back into the keep-alive pool
+			try (InputStream error = connection.getErrorStream()) {
+				if (error != null) {
+					IOUtils.skip(error, Long.MAX_VALUE);
+				}
+			}
+
+			throw new IOException(connection.getResponseMessage() + " for " + download.from);
+		}
+
+		File parent = download.to.getAbsoluteFile().getParentFile();
+
+		if (!parent.exists()) {
+			parent.mkdirs();
+		}
+
+		File partial = new File(parent, download.to.getName() + ".part");
+		long size;
+
+		try (InputStream in = connection.getInputStream(); OutputStream out = new FileOutputStream(partial)) {
+			size = IOUtils.copyLarge(in, out);
+		} catch (IOException e) {
+			partial.delete();
+			throw e;
+		}
+
+		if (download.size > 0 && size != download.size) {
+			partial.delete();
+			throw new IOException("Expected " + download.size + " bytes for " + download.name + " but got " + size);
+		}
+
+		Files.move(partial.toPath(), download.to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		HashingService.INSTANCE.invalidate(download.to);
+
+		downloaded.incrementAndGet();
+		downloadedBytes.addAndGet(size);
+	}
+
+	private static final class Download {
+		final String name;
+		final URL from;
+		final File to;
+		final long size;
+
+		Download(String name, URL from, File to, long size) {
+			this.name = name;
+			this.from = from;
+			this.to = to;
+			this.size = size;
+		}
+	}
+
+	private final class DownloadBatch extends RecursiveAction {
+		private final List<Download> downloads;
+		private final int from;
+		private final int to;
+
+		DownloadBatch(List<Download> downloads, int from, int to) {
+			this.downloads = downloads;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (failure.get() != null) {
+				return;
+			}
+
+			if (to - from > BATCH_SIZE) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new DownloadBatch(downloads, from, middle), new DownloadBatch(downloads, middle, to));
+				return;
+			}
+
+			ProgressLogger progressLogger = loggers.poll();
+
+			if (progressLogger == null) {
+				//Create a new logger if we need one
+				progressLogger = ProgressLogger.getProgressFactory(project, AssetDownloader.class.getName());
+				progressLogger.start("Downloading assets...", "assets");
+			}
+
+			try {
+				for (int i = from; i < to && failure.get() == null; i++) {
+					Download download = downloads.get(i);
+
+					try {
+						download(download, progressLogger);
+					} catch (IOException e) {
+						failure.compareAndSet(null, new IOException("Failed to download: " + download.name, e));
+					}
+				}
+			} finally {
+				//Give this logger back
+				loggers.add(progressLogger);
+			}
+		}
+	}
+}
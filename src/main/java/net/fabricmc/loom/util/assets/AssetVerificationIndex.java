@@ -0,0 +1,178 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.assets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.gradle.api.logging.Logger;
+
+import net.fabricmc.loom.util.HashingService;
+
+/**
+ * Remembers the size and modification time of every asset object whose hash has been verified, so later runs
+ * only need to rehash the objects which have changed on disk since.
+ *
+ * <p>When paranoid every object is rehashed regardless of what the index says.
+ */
+public class AssetVerificationIndex {
+	private static final int VERSION = 1;
+
+	private final File file;
+	private final boolean paranoid;
+	private final Map<String, Entry> entries = new HashMap<>();
+	private boolean dirty;
+
+	private AssetVerificationIndex(File file, boolean paranoid) {
+		this.file = file;
+		this.paranoid = paranoid;
+	}
+
+	public static AssetVerificationIndex load(File file, boolean paranoid, Logger logger) {
+		AssetVerificationIndex index = new AssetVerificationIndex(file, paranoid);
+
+		if (!file.exists()) {
+			return index;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != VERSION) {
+				logger.info("Asset verification index '{}' is from a different version, rebuilding", file);
+				index.dirty = true;
+				return index;
+			}
+
+			for (int i = in.readInt(); i > 0; i--) {
+				index.entries.put(in.readUTF(), new Entry(in.readLong(), in.readLong()));
+			}
+		} catch (IOException e) {
+			logger.warn("Error reading asset verification index '{}', rebuilding", file);
+			index.entries.clear();
+			index.dirty = true;
+		}
+
+		return index;
+	}
+
+	/**
+	 * Check whether the given asset object exists and matches its hash, only rehashing it if the size or last
+	 * modified time differ from when it was last verified.
+	 *
+	 * @param object The asset object file
+	 * @param sha1 The expected SHA-1 hash of the object
+	 * @return Whether the object exists and is known to have the expected hash
+	 */
+	public boolean isValid(File object, String sha1) {
+		BasicFileAttributes attributes;
+
+		try {
+			attributes = Files.readAttributes(object.toPath(), BasicFileAttributes.class);
+		} catch (IOException e) {
+			//Most likely the object doesn't exist (yet)
+			return false;
+		}
+
+		long size = attributes.size();
+		long modified = attributes.lastModifiedTime().toMillis();
+		Entry entry = entries.get(sha1);
+
+		if (!paranoid && entry != null && entry.size == size && entry.modified == modified) {
+			return true;
+		}
+
+		boolean matches;
+
+		try {
+			//Paranoid checks have to actually read the file, rather than trust a remembered hash
+			matches = paranoid ? HashingService.toHex(HashingService.INSTANCE.rehash(object, HashingService.Algorithm.SHA1)).equalsIgnoreCase(sha1)
+					: HashingService.INSTANCE.matchesSha1(object, sha1);
+		} catch (IOException e) {
+			matches = false;
+		}
+
+		if (!matches) {
+			if (entries.remove(sha1) != null) {
+				dirty = true;
+			}
+
+			return false;
+		}
+
+		if (entry == null || entry.size != size || entry.modified != modified) {
+			entries.put(sha1, new Entry(size, modified));
+			dirty = true;
+		}
+
+		return true;
+	}
+
+	public void save() throws IOException {
+		if (!dirty) {
+			return;
+		}
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(file.getName(), ".tmp", parent);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue().size);
+				out.writeLong(entry.getValue().modified);
+			}
+		} catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+
+		//Swap the new index in at once so a concurrent build never sees half of it
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		dirty = false;
+	}
+
+	private static final class Entry {
+		final long size;
+		final long modified;
+
+		Entry(long size, long modified) {
+			this.size = size;
+			this.modified = modified;
+		}
+	}
+}
@@ -4,10 +4,12 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.zip.ZipEntry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 import com.google.common.hash.Hashing;
 import com.google.common.io.CharSource;
@@ -16,25 +18,24 @@ import io.github.fukkitmc.gloom.asm.GloomInjector;
 import io.github.fukkitmc.gloom.definitions.ClassDefinition;
 import io.github.fukkitmc.gloom.definitions.GloomDefinitions;
 import org.gradle.api.Project;
-import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
 import org.zeroturnaround.zip.ByteSource;
 import org.zeroturnaround.zip.ZipEntrySource;
 import org.zeroturnaround.zip.ZipUtil;
-import org.zeroturnaround.zip.transform.ByteArrayZipEntryTransformer;
-import org.zeroturnaround.zip.transform.ZipEntryTransformer;
-import org.zeroturnaround.zip.transform.ZipEntryTransformerEntry;
 
 import net.fabricmc.loom.LoomGradleExtension;
-import net.fabricmc.loom.processors.JarProcessor;
+import net.fabricmc.loom.processors.ClassProcessor;
 
-public class GloomJarProcessor implements JarProcessor {
+public class GloomJarProcessor implements ClassProcessor {
 	private static final String REVISION = "+rev.2";
 
 	private Project project;
 	private GloomDefinitions definitions;
 	private byte[] hash;
+	//Filled from every thread classes are processed on
+	private final Set<String> referenced = ConcurrentHashMap.newKeySet();
 
 	@Override
 	public void setup(Project project) {
@@ -49,12 +50,40 @@ public class GloomJarProcessor implements JarProcessor {
 	}
 
 	@Override
-	public void process(File file, File annotationProcessorJar) {
-		Set<String> referenced = new HashSet<>();
-		ZipUtil.transformEntries(file, createEntries(referenced));
-		ZipUtil.addEntry(file, "gloom.sha256", hash);
+	public Set<String> getTargets() {
+		return definitions.getDefinitions().stream().map(clazz -> clazz.getName().replace('.', '/')).collect(Collectors.toSet());
+	}
+
+	@Override
+	public ClassVisitor createVisitor(String className, ClassVisitor next) {
+		project.getLogger().debug("Applying Gloom to " + className);
+
+		ClassReferenceAnalyzer after = new ClassReferenceAnalyzer(next);
+		GloomInjector gloom = new GloomInjector(after, definitions);
+		ClassReferenceAnalyzer before = new ClassReferenceAnalyzer(gloom);
+
+		return new ClassVisitor(Opcodes.ASM7, before) {
+			@Override
+			public void visitEnd() {
+				super.visitEnd();
+
+				//Only the classes Gloom introduced references to need stubbing
+				Set<String> r = after.referenced;
+				r.removeAll(before.referenced);
+				referenced.addAll(r);
+			}
+		};
+	}
+
+	@Override
+	public Map<String, byte[]> getExtraEntries() {
+		return Collections.singletonMap("gloom.sha256", hash);
+	}
 
+	@Override
+	public void finish(File annotationProcessorJar) {
 		ZipEntrySource[] entries = createInjectionEntries(referenced);
+		referenced.clear();
 
 		if (entries.length > 0) {
 			if (annotationProcessorJar.exists()) {
@@ -68,6 +97,7 @@ public class GloomJarProcessor implements JarProcessor {
 	private ZipEntrySource[] createInjectionEntries(Set<String> referenced) {
 		List<String> exclude = Arrays.asList(project.getProperties().get("loom_exclude_itf_gen").toString().split(";"));
 		return referenced.stream()
+				.sorted()
 				.filter(r -> exclude.stream().noneMatch(r::startsWith))
 				.map(entry -> {
 					ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
@@ -78,35 +108,6 @@ public class GloomJarProcessor implements JarProcessor {
 				.toArray(ZipEntrySource[]::new);
 	}
 
-	private ZipEntryTransformerEntry[] createEntries(Set<String> referenced) {
-		return definitions.getDefinitions().stream()
-				.map(clazz -> new ZipEntryTransformerEntry(clazz.getName().replaceAll("\\.", "/") + ".class", getTransformer(clazz, referenced)))
-				.toArray(ZipEntryTransformerEntry[]::new);
-	}
-
-	private ZipEntryTransformer getTransformer(ClassDefinition clazz, Set<String> referenced) {
-		return new ByteArrayZipEntryTransformer() {
-			@Override
-			protected byte[] transform(ZipEntry zipEntry, byte[] input) {
-				ClassReader reader = new ClassReader(input);
-				ClassWriter writer = new ClassWriter(0);
-
-				project.getLogger().lifecycle("Applying Gloom to " + clazz.getName());
-
-				ClassReferenceAnalyzer after = new ClassReferenceAnalyzer(writer);
-				GloomInjector gloom = new GloomInjector(after, definitions);
-				ClassReferenceAnalyzer before = new ClassReferenceAnalyzer(gloom);
-				reader.accept(before, 0);
-
-				Set<String> r = after.referenced;
-				r.removeAll(before.referenced);
-				referenced.addAll(r);
-
-				return writer.toByteArray();
-			}
-		};
-	}
-
 	@Override
 	public boolean isInvalid(File file) {
 		return !Arrays.equals(ZipUtil.unpackEntry(file, "gloom.sha256"), hash);
@@ -0,0 +1,568 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.mappings;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.fabricmc.loom.util.HashingService;
+import net.fabricmc.loom.util.MappedBuffers;
+import net.fabricmc.mapping.tree.TinyMappingFactory;
+import net.fabricmc.mapping.tree.TinyTree;
+
+/**
+ * A read only view of a set of tiny mappings stored in the compact binary format written by
+ * {@link CompactMappingsWriter}.
+ *
+ * <p>The file is memory mapped rather than read, so opening it is almost free regardless of its size and nothing
+ * but the strings actually asked for are ever decoded. Every name is interned into a single string pool, and the
+ * classes and each class's members have a table per namespace sorted by name, so a lookup by name in any namespace
+ * is a binary search.
+ *
+ * <p>Instances are safe to share between threads. Closing them releases the mapping straight away, after which
+ * nothing read from them may be used.
+ */
+public final class CompactMappings implements Closeable {
+	static final int MAGIC = 0x4C4D4150; //LMAP
+	static final int VERSION = 1;
+	static final int HEADER_INTS = 13;
+
+	private final Path file;
+	private final ByteBuffer buffer;
+	private final List<String> namespaces;
+	private final int namespaceCount;
+	private final int classCount;
+	private final int fieldCount;
+	private final int methodCount;
+
+	private final int classes;
+	private final int classOrder;
+	private final int fields;
+	private final int fieldOrder;
+	private final int methods;
+	private final int methodOrder;
+	private final int params;
+	private final int locals;
+	private final int stringOffsets;
+	private final int stringData;
+	private final String[] strings;
+
+	private CompactMappings(Path file, ByteBuffer buffer) throws IOException {
+		this.file = file.toAbsolutePath();
+		this.buffer = buffer;
+
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a compact mappings file, or from a different version");
+		}
+
+		namespaceCount = buffer.getInt(24);
+		int stringCount = buffer.getInt(28);
+		classCount = buffer.getInt(32);
+		fieldCount = buffer.getInt(36);
+		methodCount = buffer.getInt(40);
+		int paramCount = buffer.getInt(44);
+		int localCount = buffer.getInt(48);
+
+		classes = 4 * (HEADER_INTS + namespaceCount);
+		classOrder = classes + 4 * classSize(namespaceCount) * classCount;
+		fields = classOrder + 4 * namespaceCount * classCount;
+		fieldOrder = fields + 4 * fieldSize(namespaceCount) * fieldCount;
+		methods = fieldOrder + 4 * namespaceCount * fieldCount;
+		methodOrder = methods + 4 * methodSize(namespaceCount) * methodCount;
+		params = methodOrder + 4 * namespaceCount * methodCount;
+		locals = params + 4 * paramSize(namespaceCount) * paramCount;
+		stringOffsets = locals + 4 * localSize(namespaceCount) * localCount;
+		stringData = stringOffsets + 4 * (stringCount + 1);
+		strings = new String[stringCount];
+
+		List<String> namespaces = new ArrayList<>(namespaceCount);
+
+		for (int i = 0; i < namespaceCount; i++) {
+			namespaces.add(string(buffer.getInt(4 * (HEADER_INTS + i))));
+		}
+
+		this.namespaces = Collections.unmodifiableList(namespaces);
+	}
+
+	static int classSize(int namespaces) {
+		//Names, comment, field start and count, method start and count
+		return namespaces + 5;
+	}
+
+	static int fieldSize(int namespaces) {
+		//Names, descriptors, comment
+		return 2 * namespaces + 1;
+	}
+
+	static int methodSize(int namespaces) {
+		//Names, descriptors, comment, parameter start and count, local start and count
+		return 2 * namespaces + 5;
+	}
+
+	static int paramSize(int namespaces) {
+		//Index, names, comment
+		return namespaces + 2;
+	}
+
+	static int localSize(int namespaces) {
+		//Index, start offset, table index, names
+		return namespaces + 3;
+	}
+
+	/**
+	 * Get where the compact form of the given tiny file is kept, named by the tiny file's hash so a changed tiny file
+	 * gets a new compact file rather than one being written over which might still be mapped.
+	 */
+	public static Path getCompactPath(Path tinyFile) throws IOException {
+		String hash = HashingService.toHex(HashingService.INSTANCE.sha1(tinyFile.toFile()));
+		return tinyFile.resolveSibling(tinyFile.getFileName() + "." + hash + ".bin");
+	}
+
+	/**
+	 * Open the compact form of the given tiny file, writing it first if it is missing or the tiny file has changed
+	 * since it was written.
+	 *
+	 * @param tinyFile The tiny mappings file
+	 * @return The mappings in the tiny file
+	 * @throws IOException If either file cannot be read, or the compact form cannot be written
+	 */
+	public static CompactMappings load(Path tinyFile) throws IOException {
+		Path compact = getCompactPath(tinyFile);
+		BasicFileAttributes attributes = Files.readAttributes(tinyFile, BasicFileAttributes.class);
+
+		if (Files.exists(compact)) {
+			try {
+				//Named by the tiny file's hash, so anything which opens is from the tiny file as it is now
+				return open(compact);
+			} catch (IOException e) {
+				//Corrupt or from an older version, rewrite it below
+			}
+		}
+
+		TinyTree tree;
+
+		try (BufferedReader reader = Files.newBufferedReader(tinyFile)) {
+			tree = TinyMappingFactory.loadWithDetection(reader);
+		}
+
+		CompactMappingsWriter.write(tree, attributes, compact);
+		deleteStale(tinyFile, compact);
+		return open(compact);
+	}
+
+	/**
+	 * Delete the compact forms of older versions of the given tiny file. Any still mapped elsewhere stay readable on
+	 * Unix, whilst Windows refuses to delete them so they are left for next time.
+	 */
+	private static void deleteStale(Path tinyFile, Path current) {
+		String prefix = tinyFile.getFileName() + ".";
+
+		try (DirectoryStream<Path> siblings = Files.newDirectoryStream(tinyFile.toAbsolutePath().getParent(), prefix + "{bin,*.bin}")) {
+			for (Path sibling : siblings) {
+				if (!sibling.getFileName().equals(current.getFileName())) {
+					Files.deleteIfExists(sibling);
+				}
+			}
+		} catch (IOException e) {
+			//Only wasted space
+		}
+	}
+
+	public static CompactMappings open(Path file) throws IOException {
+		ByteBuffer buffer;
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		try {
+			return new CompactMappings(file, buffer);
+		} catch (IOException | RuntimeException e) {
+			MappedBuffers.unmap(buffer);
+			throw e;
+		}
+	}
+
+	/**
+	 * Check whether these are the compact form of the given tiny file as it is now.
+	 */
+	public boolean isFrom(Path tinyFile) throws IOException {
+		return file.equals(getCompactPath(tinyFile.toAbsolutePath()));
+	}
+
+	@Override
+	public void close() {
+		MappedBuffers.unmap(buffer);
+	}
+
+	public List<String> getNamespaces() {
+		return namespaces;
+	}
+
+	private int namespace(String namespace) {
+		int index = namespaces.indexOf(namespace);
+
+		if (index < 0) {
+			throw new IllegalArgumentException("Unknown namespace " + namespace + ", expected one of " + namespaces);
+		}
+
+		return index;
+	}
+
+	public List<ClassEntry> getClasses() {
+		return new AbstractList<ClassEntry>() {
+			@Override
+			public ClassEntry get(int index) {
+				return new ClassEntry(index);
+			}
+
+			@Override
+			public int size() {
+				return classCount;
+			}
+		};
+	}
+
+	/**
+	 * Find a class by its name in the given namespace.
+	 *
+	 * @return The class, or <code>null</code> if there is no class with the given name
+	 */
+	public ClassEntry findClass(String namespace, String name) {
+		int ns = namespace(namespace);
+		int index = search(classOrder, ns * classCount, classCount, classes, classSize(namespaceCount), ns, -1, name.getBytes(StandardCharsets.UTF_8), null);
+		return index >= 0 ? new ClassEntry(index) : null;
+	}
+
+	/**
+	 * Binary search a sorted order table for a record with the given name, and descriptor if there is one.
+	 *
+	 * @param order The offset of the order table
+	 * @param start The first index of the order table to search
+	 * @param count How many indices from the start to search
+	 * @param records The offset of the records the order table indexes
+	 * @param size The size of each record in ints
+	 * @param nameInt Which int of the record holds the name
+	 * @param descInt Which int of the record holds the descriptor, or <code>-1</code> if only searching by name
+	 * @param name The UTF-8 bytes of the name to find
+	 * @param desc The UTF-8 bytes of the descriptor to find, if searching by descriptor
+	 * @return The index of the matching record, or <code>-1</code> if none match
+	 */
+	private int search(int order, int start, int count, int records, int size, int nameInt, int descInt, byte[] name, byte[] desc) {
+		int low = 0;
+		int high = count - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int index = buffer.getInt(order + 4 * (start + middle));
+			int record = records + 4 * size * index;
+			int comparison = compare(buffer.getInt(record + 4 * nameInt), name);
+
+			if (comparison == 0 && descInt >= 0) {
+				comparison = compare(buffer.getInt(record + 4 * descInt), desc);
+			}
+
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return index;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Compare the UTF-8 bytes of a pooled string with the given bytes, as unsigned bytes to match how the tables
+	 * were sorted.
+	 */
+	private int compare(int string, byte[] key) {
+		int from = string < 0 ? 0 : buffer.getInt(stringOffsets + 4 * string);
+		int length = string < 0 ? 0 : buffer.getInt(stringOffsets + 4 * (string + 1)) - from;
+
+		for (int i = 0, end = Math.min(length, key.length); i < end; i++) {
+			int difference = (buffer.get(stringData + from + i) & 0xFF) - (key[i] & 0xFF);
+
+			if (difference != 0) {
+				return difference;
+			}
+		}
+
+		return length - key.length;
+	}
+
+	private String string(int string) {
+		if (string < 0) {
+			return null;
+		}
+
+		String value = strings[string];
+
+		if (value == null) {
+			int from = buffer.getInt(stringOffsets + 4 * string);
+			byte[] bytes = new byte[buffer.getInt(stringOffsets + 4 * (string + 1)) - from];
+
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = buffer.get(stringData + from + i);
+			}
+
+			//Racing to decode the same string twice is harmless, both copies are equal
+			strings[string] = value = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		return value;
+	}
+
+	private int getInt(int records, int size, int index, int offset) {
+		return buffer.getInt(records + 4 * (size * index + offset));
+	}
+
+	public final class ClassEntry {
+		private final int index;
+
+		ClassEntry(int index) {
+			this.index = index;
+		}
+
+		private int get(int offset) {
+			return getInt(classes, classSize(namespaceCount), index, offset);
+		}
+
+		public String getName(String namespace) {
+			return string(get(namespace(namespace)));
+		}
+
+		public String getComment() {
+			return string(get(namespaceCount));
+		}
+
+		public List<FieldEntry> getFields() {
+			int start = get(namespaceCount + 1);
+			int count = get(namespaceCount + 2);
+
+			return new AbstractList<FieldEntry>() {
+				@Override
+				public FieldEntry get(int index) {
+					return new FieldEntry(start + index);
+				}
+
+				@Override
+				public int size() {
+					return count;
+				}
+			};
+		}
+
+		public List<MethodEntry> getMethods() {
+			int start = get(namespaceCount + 3);
+			int count = get(namespaceCount + 4);
+
+			return new AbstractList<MethodEntry>() {
+				@Override
+				public MethodEntry get(int index) {
+					return new MethodEntry(start + index);
+				}
+
+				@Override
+				public int size() {
+					return count;
+				}
+			};
+		}
+
+		/**
+		 * Find a field of this class by its name and descriptor in the given namespace.
+		 *
+		 * @return The field, or <code>null</code> if this class has no such field
+		 */
+		public FieldEntry findField(String namespace, String name, String descriptor) {
+			int ns = namespace(namespace);
+			int found = search(fieldOrder, ns * fieldCount + get(namespaceCount + 1), get(namespaceCount + 2), fields, fieldSize(namespaceCount),
+					ns, namespaceCount + ns, name.getBytes(StandardCharsets.UTF_8), descriptor.getBytes(StandardCharsets.UTF_8));
+			return found >= 0 ? new FieldEntry(found) : null;
+		}
+
+		/**
+		 * Find a method of this class by its name and descriptor in the given namespace.
+		 *
+		 * @return The method, or <code>null</code> if this class has no such method
+		 */
+		public MethodEntry findMethod(String namespace, String name, String descriptor) {
+			int ns = namespace(namespace);
+			int found = search(methodOrder, ns * methodCount + get(namespaceCount + 3), get(namespaceCount + 4), methods, methodSize(namespaceCount),
+					ns, namespaceCount + ns, name.getBytes(StandardCharsets.UTF_8), descriptor.getBytes(StandardCharsets.UTF_8));
+			return found >= 0 ? new MethodEntry(found) : null;
+		}
+	}
+
+	public final class FieldEntry {
+		private final int index;
+
+		FieldEntry(int index) {
+			this.index = index;
+		}
+
+		private int get(int offset) {
+			return getInt(fields, fieldSize(namespaceCount), index, offset);
+		}
+
+		public String getName(String namespace) {
+			return string(get(namespace(namespace)));
+		}
+
+		public String getDescriptor(String namespace) {
+			return string(get(namespaceCount + namespace(namespace)));
+		}
+
+		public String getComment() {
+			return string(get(2 * namespaceCount));
+		}
+	}
+
+	public final class MethodEntry {
+		private final int index;
+
+		MethodEntry(int index) {
+			this.index = index;
+		}
+
+		private int get(int offset) {
+			return getInt(methods, methodSize(namespaceCount), index, offset);
+		}
+
+		public String getName(String namespace) {
+			return string(get(namespace(namespace)));
+		}
+
+		public String getDescriptor(String namespace) {
+			return string(get(namespaceCount + namespace(namespace)));
+		}
+
+		public String getComment() {
+			return string(get(2 * namespaceCount));
+		}
+
+		public List<ParameterEntry> getParameters() {
+			int start = get(2 * namespaceCount + 1);
+			int count = get(2 * namespaceCount + 2);
+
+			return new AbstractList<ParameterEntry>() {
+				@Override
+				public ParameterEntry get(int index) {
+					return new ParameterEntry(start + index);
+				}
+
+				@Override
+				public int size() {
+					return count;
+				}
+			};
+		}
+
+		public List<LocalVariableEntry> getLocalVariables() {
+			int start = get(2 * namespaceCount + 3);
+			int count = get(2 * namespaceCount + 4);
+
+			return new AbstractList<LocalVariableEntry>() {
+				@Override
+				public LocalVariableEntry get(int index) {
+					return new LocalVariableEntry(start + index);
+				}
+
+				@Override
+				public int size() {
+					return count;
+				}
+			};
+		}
+	}
+
+	public final class ParameterEntry {
+		private final int index;
+
+		ParameterEntry(int index) {
+			this.index = index;
+		}
+
+		private int get(int offset) {
+			return getInt(params, paramSize(namespaceCount), index, offset);
+		}
+
+		public int getLocalVariableIndex() {
+			return get(0);
+		}
+
+		public String getName(String namespace) {
+			return string(get(1 + namespace(namespace)));
+		}
+
+		public String getComment() {
+			return string(get(1 + namespaceCount));
+		}
+	}
+
+	public final class LocalVariableEntry {
+		private final int index;
+
+		LocalVariableEntry(int index) {
+			this.index = index;
+		}
+
+		private int get(int offset) {
+			return getInt(locals, localSize(namespaceCount), index, offset);
+		}
+
+		public int getLocalVariableIndex() {
+			return get(0);
+		}
+
+		public int getLocalVariableStartOffset() {
+			return get(1);
+		}
+
+		public int getLocalVariableTableIndex() {
+			return get(2);
+		}
+
+		public String getName(String namespace) {
+			return string(get(3 + namespace(namespace)));
+		}
+	}
+}
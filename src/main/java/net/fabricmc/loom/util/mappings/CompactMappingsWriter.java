@@ -0,0 +1,316 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.mappings;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.LocalVariableDef;
+import net.fabricmc.mapping.tree.MethodDef;
+import net.fabricmc.mapping.tree.ParameterDef;
+import net.fabricmc.mapping.tree.TinyTree;
+
+/**
+ * Writes a {@link TinyTree} out in the format read by {@link CompactMappings}.
+ *
+ * <p>The file is laid out as a fixed size header, then tables of fixed size int records for the classes, fields,
+ * methods, parameters and locals, then the string pool. Each class's members are stored contiguously so a class
+ * only needs the start and count of each. After the class, field and method tables comes a table per namespace of
+ * record indices sorted by name (and descriptor for members), which is what lookups binary search through.
+ */
+public final class CompactMappingsWriter {
+	private final List<String> namespaces;
+	private final int namespaceCount;
+
+	private final Map<String, Integer> stringIds = new HashMap<>();
+	private final List<byte[]> strings = new ArrayList<>();
+
+	private final IntList classes = new IntList();
+	private final IntList fields = new IntList();
+	private final IntList methods = new IntList();
+	private final IntList params = new IntList();
+	private final IntList locals = new IntList();
+
+	private CompactMappingsWriter(List<String> namespaces) {
+		this.namespaces = namespaces;
+		this.namespaceCount = namespaces.size();
+	}
+
+	/**
+	 * Write the given mappings to the given file, replacing it all at once if it already exists.
+	 *
+	 * @param mappings The mappings to write
+	 * @param source The attributes of the file the mappings were read from, so the compact form can be invalidated
+	 * when it changes
+	 * @param output Where to write the compact form
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void write(TinyTree mappings, BasicFileAttributes source, Path output) throws IOException {
+		CompactMappingsWriter writer = new CompactMappingsWriter(mappings.getMetadata().getNamespaces());
+
+		for (ClassDef classDef : mappings.getClasses()) {
+			writer.add(classDef);
+		}
+
+		Path temp = Files.createTempFile(output.toAbsolutePath().getParent(), output.getFileName().toString(), ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			writer.write(out, source);
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+
+		Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private int string(String value) {
+		if (value == null) {
+			return -1;
+		}
+
+		return stringIds.computeIfAbsent(value, k -> {
+			strings.add(k.getBytes(StandardCharsets.UTF_8));
+			return strings.size() - 1;
+		});
+	}
+
+	private void add(ClassDef classDef) {
+		for (String namespace : namespaces) {
+			classes.add(string(classDef.getName(namespace)));
+		}
+
+		classes.add(string(classDef.getComment()));
+		classes.add(fields.size() / CompactMappings.fieldSize(namespaceCount));
+		classes.add(classDef.getFields().size());
+		classes.add(methods.size() / CompactMappings.methodSize(namespaceCount));
+		classes.add(classDef.getMethods().size());
+
+		for (FieldDef field : classDef.getFields()) {
+			for (String namespace : namespaces) {
+				fields.add(string(field.getName(namespace)));
+			}
+
+			for (String namespace : namespaces) {
+				fields.add(string(field.getDescriptor(namespace)));
+			}
+
+			fields.add(string(field.getComment()));
+		}
+
+		for (MethodDef method : classDef.getMethods()) {
+			for (String namespace : namespaces) {
+				methods.add(string(method.getName(namespace)));
+			}
+
+			for (String namespace : namespaces) {
+				methods.add(string(method.getDescriptor(namespace)));
+			}
+
+			methods.add(string(method.getComment()));
+			methods.add(params.size() / CompactMappings.paramSize(namespaceCount));
+			methods.add(method.getParameters().size());
+			methods.add(locals.size() / CompactMappings.localSize(namespaceCount));
+			methods.add(method.getLocalVariables().size());
+
+			for (ParameterDef parameter : method.getParameters()) {
+				params.add(parameter.getLocalVariableIndex());
+
+				for (String namespace : namespaces) {
+					params.add(string(parameter.getName(namespace)));
+				}
+
+				params.add(string(parameter.getComment()));
+			}
+
+			for (LocalVariableDef local : method.getLocalVariables()) {
+				locals.add(local.getLocalVariableIndex());
+				locals.add(local.getLocalVariableStartOffset());
+				locals.add(local.getLocalVariableTableIndex());
+
+				for (String namespace : namespaces) {
+					locals.add(string(local.getName(namespace)));
+				}
+			}
+		}
+	}
+
+	private void write(DataOutputStream out, BasicFileAttributes source) throws IOException {
+		int[] namespaceIds = namespaces.stream().mapToInt(this::string).toArray();
+		int classSize = CompactMappings.classSize(namespaceCount);
+		int fieldSize = CompactMappings.fieldSize(namespaceCount);
+		int methodSize = CompactMappings.methodSize(namespaceCount);
+		int classCount = classes.size() / classSize;
+		int fieldCount = fields.size() / fieldSize;
+		int methodCount = methods.size() / methodSize;
+
+		out.writeInt(CompactMappings.MAGIC);
+		out.writeInt(CompactMappings.VERSION);
+		out.writeLong(source.size());
+		out.writeLong(source.lastModifiedTime().toMillis());
+		out.writeInt(namespaceCount);
+		out.writeInt(strings.size());
+		out.writeInt(classCount);
+		out.writeInt(fieldCount);
+		out.writeInt(methodCount);
+		out.writeInt(params.size() / CompactMappings.paramSize(namespaceCount));
+		out.writeInt(locals.size() / CompactMappings.localSize(namespaceCount));
+
+		for (int id : namespaceIds) {
+			out.writeInt(id);
+		}
+
+		classes.write(out);
+
+		for (int namespace = 0; namespace < namespaceCount; namespace++) {
+			int nameInt = namespace;
+			writeOrder(out, 0, classCount, index -> classes.get(classSize * index + nameInt), null);
+		}
+
+		fields.write(out);
+		writeMemberOrders(out, classSize, namespaceCount + 1, fields, fieldSize, fieldCount);
+
+		methods.write(out);
+		writeMemberOrders(out, classSize, namespaceCount + 3, methods, methodSize, methodCount);
+
+		params.write(out);
+		locals.write(out);
+
+		int offset = 0;
+		out.writeInt(offset);
+
+		for (byte[] string : strings) {
+			offset += string.length;
+			out.writeInt(offset);
+		}
+
+		for (byte[] string : strings) {
+			out.write(string);
+		}
+	}
+
+	/**
+	 * Write a sorted order table per namespace for a member table, each class's members being sorted separately.
+	 *
+	 * @param rangeInt Which int of the class record holds the start of the class's members, followed by the count
+	 */
+	private void writeMemberOrders(DataOutputStream out, int classSize, int rangeInt, IntList members, int memberSize, int memberCount) throws IOException {
+		int classCount = classes.size() / classSize;
+
+		for (int namespace = 0; namespace < namespaceCount; namespace++) {
+			int nameInt = namespace;
+			int descInt = namespaceCount + namespace;
+			int written = 0;
+
+			for (int cls = 0; cls < classCount; cls++) {
+				int start = classes.get(classSize * cls + rangeInt);
+				int count = classes.get(classSize * cls + rangeInt + 1);
+
+				writeOrder(out, start, start + count, index -> members.get(memberSize * index + nameInt), index -> members.get(memberSize * index + descInt));
+				written += count;
+			}
+
+			if (written != memberCount) {
+				throw new IllegalStateException("Member ranges cover " + written + " of " + memberCount + " members");
+			}
+		}
+	}
+
+	private void writeOrder(DataOutputStream out, int from, int to, IntUnaryOperator name, IntUnaryOperator desc) throws IOException {
+		Comparator<Integer> order = Comparator.comparing(name::applyAsInt, this::compareStrings);
+
+		if (desc != null) {
+			order = order.thenComparing(desc::applyAsInt, this::compareStrings);
+		}
+
+		Integer[] sorted = IntStream.range(from, to).boxed().toArray(Integer[]::new);
+		Arrays.sort(sorted, order);
+
+		for (int index : sorted) {
+			out.writeInt(index);
+		}
+	}
+
+	/**
+	 * Compare pooled strings by their UTF-8 bytes as unsigned values, which is how {@link CompactMappings} searches.
+	 */
+	private int compareStrings(int a, int b) {
+		byte[] left = a < 0 ? new byte[0] : strings.get(a);
+		byte[] right = b < 0 ? new byte[0] : strings.get(b);
+
+		for (int i = 0, end = Math.min(left.length, right.length); i < end; i++) {
+			int difference = (left[i] & 0xFF) - (right[i] & 0xFF);
+
+			if (difference != 0) {
+				return difference;
+			}
+		}
+
+		return left.length - right.length;
+	}
+
+	private static final class IntList {
+		private int[] values = new int[1024];
+		private int size;
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+
+			values[size++] = value;
+		}
+
+		int get(int index) {
+			return values[index];
+		}
+
+		int size() {
+			return size;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			for (int i = 0; i < size; i++) {
+				out.writeInt(values[i]);
+			}
+		}
+	}
+}
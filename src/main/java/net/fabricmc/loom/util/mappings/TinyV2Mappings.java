@@ -0,0 +1,579 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.mappings;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * A mutable tree of tiny v2 mappings, able to be read, rearranged and written out again without going through
+ * intermediate files.
+ *
+ * <p>Classes are keyed by their name in the first namespace, and members by their name and descriptor in it, as
+ * with the format itself.
+ */
+public final class TinyV2Mappings {
+	private static final String ESCAPED_NAMES = "escaped-names";
+
+	final List<String> namespaces;
+	final Map<String, String> properties = new LinkedHashMap<>();
+	final Map<String, ClassMapping> classes = new LinkedHashMap<>();
+
+	TinyV2Mappings(List<String> namespaces) {
+		this.namespaces = namespaces;
+	}
+
+	public List<String> getNamespaces() {
+		return namespaces;
+	}
+
+	public static TinyV2Mappings read(BufferedReader reader) throws IOException {
+		String header = reader.readLine();
+		String[] headerParts = header != null ? header.split("\t", -1) : new String[0];
+
+		if (headerParts.length < 5 || !"tiny".equals(headerParts[0]) || !"2".equals(headerParts[1])) {
+			throw new IOException("Not tiny v2 mappings, header was: " + header);
+		}
+
+		TinyV2Mappings mappings = new TinyV2Mappings(Arrays.asList(Arrays.copyOfRange(headerParts, 3, headerParts.length)));
+		int namespaceCount = mappings.namespaces.size();
+		boolean escapedNames = false;
+
+		ClassMapping currentClass = null;
+		MemberMapping currentMember = null;
+		Commented currentChild = null;
+		String line;
+		int lineNumber = 1;
+
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+
+			if (line.isEmpty()) {
+				continue;
+			}
+
+			int depth = 0;
+
+			while (depth < line.length() && line.charAt(depth) == '\t') {
+				depth++;
+			}
+
+			String[] parts = line.substring(depth).split("\t", -1);
+
+			if (currentClass == null && depth == 1) {
+				mappings.properties.put(parts[0], parts.length > 1 ? unescape(parts[1]) : null);
+				escapedNames |= ESCAPED_NAMES.equals(parts[0]);
+				continue;
+			}
+
+			UnaryOperator<String> name = escapedNames ? TinyV2Mappings::unescape : UnaryOperator.identity();
+
+			try {
+				switch (depth) {
+				case 0:
+					if (!"c".equals(parts[0])) {
+						throw new IOException("Unexpected top level entry " + parts[0]);
+					}
+
+					currentClass = new ClassMapping(names(parts, 1, namespaceCount, name));
+					mappings.classes.put(currentClass.names[0], currentClass);
+					currentMember = null;
+					break;
+				case 1:
+					if ("c".equals(parts[0])) {
+						currentClass.comments.add(unescape(parts[1]));
+					} else if ("f".equals(parts[0]) || "m".equals(parts[0])) {
+						currentMember = new MemberMapping(name.apply(parts[1]), names(parts, 2, namespaceCount, name));
+						("f".equals(parts[0]) ? currentClass.fields : currentClass.methods).put(currentMember.key(), currentMember);
+					} else {
+						throw new IOException("Unexpected class entry " + parts[0]);
+					}
+
+					break;
+				case 2:
+					if ("c".equals(parts[0])) {
+						currentMember.comments.add(unescape(parts[1]));
+					} else if ("p".equals(parts[0])) {
+						ParameterMapping parameter = new ParameterMapping(Integer.parseInt(parts[1]), names(parts, 2, namespaceCount, name));
+						currentMember.parameters.put(parameter.lvIndex, parameter);
+						currentChild = parameter;
+					} else if ("v".equals(parts[0])) {
+						LocalMapping local = new LocalMapping(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]), names(parts, 4, namespaceCount, name));
+						currentMember.locals.put(local.key(), local);
+						currentChild = local;
+					} else {
+						throw new IOException("Unexpected member entry " + parts[0]);
+					}
+
+					break;
+				case 3:
+					if (!"c".equals(parts[0])) {
+						throw new IOException("Unexpected parameter entry " + parts[0]);
+					}
+
+					currentChild.comments.add(unescape(parts[1]));
+					break;
+				default:
+					throw new IOException("Unexpected indentation");
+				}
+			} catch (IOException | RuntimeException e) {
+				throw new IOException("Malformed mappings on line " + lineNumber + ": " + line, e);
+			}
+		}
+
+		return mappings;
+	}
+
+	private static String[] names(String[] parts, int from, int count, UnaryOperator<String> unescape) throws IOException {
+		if (parts.length < from + count) {
+			throw new IOException("Expected " + count + " names but found " + (parts.length - from));
+		}
+
+		String[] names = new String[count];
+
+		for (int i = 0; i < count; i++) {
+			names[i] = unescape.apply(parts[from + i]);
+		}
+
+		return names;
+	}
+
+	public void write(Writer writer) throws IOException {
+		boolean escapedNames = properties.containsKey(ESCAPED_NAMES);
+		UnaryOperator<String> name = escapedNames ? TinyV2Mappings::escape : UnaryOperator.identity();
+
+		writer.write("tiny\t2\t0\t" + String.join("\t", namespaces) + "\n");
+
+		for (Map.Entry<String, String> property : properties.entrySet()) {
+			writer.write("\t" + property.getKey() + (property.getValue() != null ? "\t" + escape(property.getValue()) : "") + "\n");
+		}
+
+		for (ClassMapping classMapping : classes.values()) {
+			writer.write("c");
+			writeNames(writer, classMapping.names, name);
+			writeComments(writer, "\t", classMapping.comments);
+
+			for (MemberMapping field : classMapping.fields.values()) {
+				writer.write("\tf\t" + name.apply(field.desc));
+				writeNames(writer, field.names, name);
+				writeComments(writer, "\t\t", field.comments);
+			}
+
+			for (MemberMapping method : classMapping.methods.values()) {
+				writer.write("\tm\t" + name.apply(method.desc));
+				writeNames(writer, method.names, name);
+				writeComments(writer, "\t\t", method.comments);
+
+				for (ParameterMapping parameter : method.parameters.values()) {
+					writer.write("\t\tp\t" + parameter.lvIndex);
+					writeNames(writer, parameter.names, name);
+					writeComments(writer, "\t\t\t", parameter.comments);
+				}
+
+				for (LocalMapping local : method.locals.values()) {
+					writer.write("\t\tv\t" + local.lvIndex + "\t" + local.startOffset + "\t" + local.lvtIndex);
+					writeNames(writer, local.names, name);
+					writeComments(writer, "\t\t\t", local.comments);
+				}
+			}
+		}
+	}
+
+	private static void writeNames(Writer writer, String[] names, UnaryOperator<String> escape) throws IOException {
+		for (String name : names) {
+			writer.write('\t');
+			writer.write(escape.apply(name));
+		}
+
+		writer.write('\n');
+	}
+
+	private static void writeComments(Writer writer, String indent, List<String> comments) throws IOException {
+		for (String comment : comments) {
+			writer.write(indent + "c\t" + escape(comment) + "\n");
+		}
+	}
+
+	/**
+	 * Rearrange the namespaces into the given order, which must only contain existing namespaces. Descriptors are
+	 * remapped into the new first namespace.
+	 *
+	 * @return A new tree with the namespaces in the given order
+	 */
+	public TinyV2Mappings reorder(String... order) {
+		int[] from = new int[order.length];
+
+		for (int i = 0; i < order.length; i++) {
+			from[i] = namespaces.indexOf(order[i]);
+
+			if (from[i] < 0) {
+				throw new IllegalArgumentException("Unknown namespace " + order[i] + ", expected one of " + namespaces);
+			}
+		}
+
+		Map<String, String> classNames = new HashMap<>();
+
+		for (ClassMapping classMapping : classes.values()) {
+			String newName = classMapping.names[from[0]];
+			classNames.put(classMapping.names[0], newName.isEmpty() ? classMapping.names[0] : newName);
+		}
+
+		UnaryOperator<String> remapDesc = desc -> remapDescriptor(desc, classNames);
+		TinyV2Mappings reordered = new TinyV2Mappings(Arrays.asList(order));
+		reordered.properties.putAll(properties);
+
+		for (ClassMapping classMapping : classes.values()) {
+			ClassMapping newClass = new ClassMapping(permute(classMapping.names, from));
+			newClass.comments.addAll(classMapping.comments);
+
+			for (MemberMapping field : classMapping.fields.values()) {
+				MemberMapping newField = field.copy(remapDesc.apply(field.desc), permute(field.names, from), from);
+				newClass.fields.put(newField.key(), newField);
+			}
+
+			for (MemberMapping method : classMapping.methods.values()) {
+				MemberMapping newMethod = method.copy(remapDesc.apply(method.desc), permute(method.names, from), from);
+				newClass.methods.put(newMethod.key(), newMethod);
+			}
+
+			reordered.classes.put(newClass.names[0], newClass);
+		}
+
+		return reordered;
+	}
+
+	/**
+	 * Merge two sets of mappings which share the same first namespace, as Stitch's {@code mergeTinyV2} does.
+	 *
+	 * <p>Any class or member missing from one side takes the shared name for that side's namespaces, whilst missing
+	 * parameter and local names are left empty. Comments, parameters and locals are taken from both sides.
+	 *
+	 * @return A new tree with the namespaces of {@code a} followed by those of {@code b} after the shared one
+	 */
+	public static TinyV2Mappings merge(TinyV2Mappings a, TinyV2Mappings b) {
+		if (!a.namespaces.get(0).equals(b.namespaces.get(0))) {
+			throw new IllegalArgumentException("Mappings do not share a first namespace: " + a.namespaces + " vs " + b.namespaces);
+		}
+
+		List<String> namespaces = new ArrayList<>(a.namespaces);
+		namespaces.addAll(b.namespaces.subList(1, b.namespaces.size()));
+
+		TinyV2Mappings merged = new TinyV2Mappings(namespaces);
+		merged.properties.putAll(a.properties);
+		merged.properties.putAll(b.properties);
+		int aCount = a.namespaces.size();
+		int bCount = b.namespaces.size();
+
+		Map<String, ClassMapping> bClasses = new LinkedHashMap<>(b.classes);
+
+		for (ClassMapping aClass : a.classes.values()) {
+			merged.add(mergeClass(aClass, bClasses.remove(aClass.names[0]), aCount, bCount));
+		}
+
+		for (ClassMapping bClass : bClasses.values()) {
+			merged.add(mergeClass(null, bClass, aCount, bCount));
+		}
+
+		return merged;
+	}
+
+	private void add(ClassMapping classMapping) {
+		classes.put(classMapping.names[0], classMapping);
+	}
+
+	private static ClassMapping mergeClass(ClassMapping a, ClassMapping b, int aCount, int bCount) {
+		String shared = (a != null ? a : b).names[0];
+		ClassMapping merged = new ClassMapping(mergeNames(shared, a != null ? a.names : null, aCount, b != null ? b.names : null, bCount));
+		mergeComments(merged, a, b);
+		mergeMembers(merged.fields, a != null ? a.fields : Collections.emptyMap(), b != null ? b.fields : Collections.emptyMap(), aCount, bCount);
+		mergeMembers(merged.methods, a != null ? a.methods : Collections.emptyMap(), b != null ? b.methods : Collections.emptyMap(), aCount, bCount);
+		return merged;
+	}
+
+	private static void mergeMembers(Map<String, MemberMapping> into, Map<String, MemberMapping> a, Map<String, MemberMapping> b, int aCount, int bCount) {
+		Map<String, MemberMapping> remaining = new LinkedHashMap<>(b);
+
+		for (MemberMapping aMember : a.values()) {
+			MemberMapping merged = mergeMember(aMember, remaining.remove(aMember.key()), aCount, bCount);
+			into.put(merged.key(), merged);
+		}
+
+		for (MemberMapping bMember : remaining.values()) {
+			MemberMapping merged = mergeMember(null, bMember, aCount, bCount);
+			into.put(merged.key(), merged);
+		}
+	}
+
+	private static MemberMapping mergeMember(MemberMapping a, MemberMapping b, int aCount, int bCount) {
+		MemberMapping either = a != null ? a : b;
+		MemberMapping merged = new MemberMapping(either.desc, mergeNames(either.names[0], a != null ? a.names : null, aCount, b != null ? b.names : null, bCount));
+		Map<Integer, ParameterMapping> aParameters = a != null ? a.parameters : Collections.emptyMap();
+		Map<Integer, ParameterMapping> bParameters = b != null ? b.parameters : Collections.emptyMap();
+		Map<String, LocalMapping> aLocals = a != null ? a.locals : Collections.emptyMap();
+		Map<String, LocalMapping> bLocals = b != null ? b.locals : Collections.emptyMap();
+
+		mergeComments(merged, a, b);
+		Set<Integer> lvIndices = new LinkedHashSet<>(aParameters.keySet());
+		lvIndices.addAll(bParameters.keySet());
+
+		for (int lvIndex : lvIndices) {
+			ParameterMapping aParameter = aParameters.get(lvIndex);
+			ParameterMapping bParameter = bParameters.get(lvIndex);
+			ParameterMapping parameter = new ParameterMapping(lvIndex, mergeNames("", aParameter != null ? aParameter.names : null, aCount, bParameter != null ? bParameter.names : null, bCount));
+			mergeComments(parameter, aParameter, bParameter);
+			merged.parameters.put(lvIndex, parameter);
+		}
+
+		Set<String> localKeys = new LinkedHashSet<>(aLocals.keySet());
+		localKeys.addAll(bLocals.keySet());
+
+		for (String key : localKeys) {
+			LocalMapping aLocal = aLocals.get(key);
+			LocalMapping bLocal = bLocals.get(key);
+			LocalMapping original = aLocal != null ? aLocal : bLocal;
+			LocalMapping local = new LocalMapping(original.lvIndex, original.startOffset, original.lvtIndex, mergeNames("", aLocal != null ? aLocal.names : null, aCount, bLocal != null ? bLocal.names : null, bCount));
+			mergeComments(local, aLocal, bLocal);
+			merged.locals.put(key, local);
+		}
+
+		return merged;
+	}
+
+	private static void mergeComments(Commented into, Commented a, Commented b) {
+		if (a != null) {
+			into.comments.addAll(a.comments);
+		}
+
+		if (b != null) {
+			into.comments.addAll(b.comments);
+		}
+	}
+
+	/**
+	 * Join the names of both sides, using the given fallback for either side which is missing or has no name.
+	 */
+	private static String[] mergeNames(String fallback, String[] a, int aCount, String[] b, int bCount) {
+		String[] names = new String[aCount + bCount - 1];
+		names[0] = a != null ? a[0] : b != null ? b[0] : fallback;
+
+		for (int i = 1; i < aCount; i++) {
+			names[i] = a != null && !a[i].isEmpty() ? a[i] : fallback;
+		}
+
+		for (int i = 1; i < bCount; i++) {
+			names[aCount + i - 1] = b != null && !b[i].isEmpty() ? b[i] : fallback;
+		}
+
+		return names;
+	}
+
+	static String[] permute(String[] names, int[] from) {
+		String[] permuted = new String[from.length];
+
+		for (int i = 0; i < from.length; i++) {
+			permuted[i] = names[from[i]];
+		}
+
+		return permuted;
+	}
+
+	static String remapDescriptor(String desc, Map<String, String> classNames) {
+		StringBuilder remapped = new StringBuilder(desc.length());
+
+		for (int i = 0; i < desc.length(); i++) {
+			char c = desc.charAt(i);
+			remapped.append(c);
+
+			if (c == 'L') {
+				int end = desc.indexOf(';', i);
+				String name = desc.substring(i + 1, end);
+				remapped.append(classNames.getOrDefault(name, name)).append(';');
+				i = end;
+			}
+		}
+
+		return remapped.toString();
+	}
+
+	private static String escape(String value) {
+		if (value.indexOf('\\') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0 && value.indexOf('\t') < 0 && value.indexOf('\0') < 0) {
+			return value;
+		}
+
+		StringBuilder escaped = new StringBuilder(value.length() + 8);
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			switch (c) {
+			case '\\':
+				escaped.append("\\\\");
+				break;
+			case '\n':
+				escaped.append("\\n");
+				break;
+			case '\r':
+				escaped.append("\\r");
+				break;
+			case '\t':
+				escaped.append("\\t");
+				break;
+			case '\0':
+				escaped.append("\\0");
+				break;
+			default:
+				escaped.append(c);
+			}
+		}
+
+		return escaped.toString();
+	}
+
+	private static String unescape(String value) {
+		if (value.indexOf('\\') < 0) {
+			return value;
+		}
+
+		StringBuilder unescaped = new StringBuilder(value.length());
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			if (c != '\\' || i + 1 == value.length()) {
+				unescaped.append(c);
+				continue;
+			}
+
+			char next = value.charAt(++i);
+
+			switch (next) {
+			case 'n':
+				unescaped.append('\n');
+				break;
+			case 'r':
+				unescaped.append('\r');
+				break;
+			case 't':
+				unescaped.append('\t');
+				break;
+			case '0':
+				unescaped.append('\0');
+				break;
+			default:
+				unescaped.append(next);
+			}
+		}
+
+		return unescaped.toString();
+	}
+
+	abstract static class Commented {
+		final List<String> comments = new ArrayList<>();
+	}
+
+	static final class ClassMapping extends Commented {
+		final String[] names;
+		final Map<String, MemberMapping> fields = new LinkedHashMap<>();
+		final Map<String, MemberMapping> methods = new LinkedHashMap<>();
+
+		ClassMapping(String[] names) {
+			this.names = names;
+		}
+	}
+
+	static final class MemberMapping extends Commented {
+		final String desc;
+		final String[] names;
+		final Map<Integer, ParameterMapping> parameters = new LinkedHashMap<>();
+		final Map<String, LocalMapping> locals = new LinkedHashMap<>();
+
+		MemberMapping(String desc, String[] names) {
+			this.desc = desc;
+			this.names = names;
+		}
+
+		String key() {
+			return names[0] + desc;
+		}
+
+		MemberMapping copy(String desc, String[] names, int[] from) {
+			MemberMapping copy = new MemberMapping(desc, names);
+			copy.comments.addAll(comments);
+
+			for (ParameterMapping parameter : parameters.values()) {
+				ParameterMapping newParameter = new ParameterMapping(parameter.lvIndex, permute(parameter.names, from));
+				newParameter.comments.addAll(parameter.comments);
+				copy.parameters.put(newParameter.lvIndex, newParameter);
+			}
+
+			for (LocalMapping local : locals.values()) {
+				LocalMapping newLocal = new LocalMapping(local.lvIndex, local.startOffset, local.lvtIndex, permute(local.names, from));
+				newLocal.comments.addAll(local.comments);
+				copy.locals.put(newLocal.key(), newLocal);
+			}
+
+			return copy;
+		}
+	}
+
+	static final class ParameterMapping extends Commented {
+		final int lvIndex;
+		final String[] names;
+
+		ParameterMapping(int lvIndex, String[] names) {
+			this.lvIndex = lvIndex;
+			this.names = names;
+		}
+	}
+
+	static final class LocalMapping extends Commented {
+		final int lvIndex;
+		final int startOffset;
+		final int lvtIndex;
+		final String[] names;
+
+		LocalMapping(int lvIndex, int startOffset, int lvtIndex, String[] names) {
+			this.lvIndex = lvIndex;
+			this.startOffset = startOffset;
+			this.lvtIndex = lvtIndex;
+			this.names = names;
+		}
+
+		String key() {
+			return lvIndex + ":" + startOffset + ":" + lvtIndex;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.remapping;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+
+/**
+ * The classes of a jar along with their hierarchy and every class, field and method they mention.
+ *
+ * <p>None of this depends on the mappings, so a single index can be read once and shared between the
+ * {@link MappingFingerprinter}s of each namespace a jar is remapped to. Once read it is never modified, so it is
+ * safe to use from multiple threads.
+ */
+public final class ClassIndex {
+	private final Map<String, IndexedClass> classes;
+
+	private ClassIndex(Map<String, IndexedClass> classes) {
+		this.classes = classes;
+	}
+
+	public static ClassIndex read(Path jar) throws IOException {
+		Map<String, IndexedClass> classes = new LinkedHashMap<>();
+
+		try (ZipFile zip = new ZipFile(jar.toFile())) {
+			for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+				ZipEntry entry = entries.nextElement();
+
+				if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+					continue;
+				}
+
+				byte[] bytes;
+
+				try (InputStream in = zip.getInputStream(entry)) {
+					bytes = IOUtils.toByteArray(in);
+				}
+
+				IndexedClass indexed = index(bytes, entry.getCrc());
+				classes.put(indexed.name, indexed);
+			}
+		}
+
+		return new ClassIndex(classes);
+	}
+
+	private static IndexedClass index(byte[] bytes, long checksum) {
+		ClassReader reader = new ClassReader(bytes);
+		IndexedClass indexed = new IndexedClass(reader.getClassName(), reader.getSuperName(), reader.getInterfaces(), bytes, checksum ^ bytes.length);
+		SymbolCollector collector = new SymbolCollector(indexed);
+
+		reader.accept(new ClassRemapper(new ClassVisitor(Opcodes.ASM7) {
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+				//Keep going into the code so the references from it are seen
+				return new MethodVisitor(Opcodes.ASM7) { };
+			}
+		}, collector), ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+		return indexed;
+	}
+
+	public Set<String> getClassNames() {
+		return Collections.unmodifiableSet(classes.keySet());
+	}
+
+	IndexedClass get(String name) {
+		return classes.get(name);
+	}
+
+	byte[] getBytes(String name) {
+		return classes.get(name).bytes;
+	}
+
+	static final class IndexedClass {
+		final String name;
+		final String superName;
+		final String[] interfaces;
+		final byte[] bytes;
+		final long checksum;
+		final Set<String> classes = new LinkedHashSet<>();
+		final Set<String> methods = new LinkedHashSet<>();
+		final Set<String> fields = new LinkedHashSet<>();
+
+		IndexedClass(String name, String superName, String[] interfaces, byte[] bytes, long checksum) {
+			this.name = name;
+			this.superName = superName;
+			this.interfaces = interfaces;
+			this.bytes = bytes;
+			this.checksum = checksum;
+		}
+	}
+
+	/**
+	 * Records every class, field and method a class mentions as it is passed through a {@link ClassRemapper}.
+	 */
+	private static final class SymbolCollector extends Remapper {
+		private final IndexedClass indexed;
+
+		SymbolCollector(IndexedClass indexed) {
+			this.indexed = indexed;
+		}
+
+		@Override
+		public String map(String internalName) {
+			indexed.classes.add(internalName);
+			return internalName;
+		}
+
+		@Override
+		public String mapMethodName(String owner, String name, String descriptor) {
+			indexed.methods.add(owner + '\t' + name + '\t' + descriptor);
+			return name;
+		}
+
+		@Override
+		public String mapInvokeDynamicMethodName(String name, String descriptor) {
+			Type type = Type.getReturnType(descriptor);
+
+			if (type.getSort() == Type.OBJECT) {
+				//Lambdas implement a method of the type they return, which is only known by name here
+				indexed.methods.add(type.getInternalName() + '\t' + name + '\t');
+			}
+
+			return name;
+		}
+
+		@Override
+		public String mapFieldName(String owner, String name, String descriptor) {
+			indexed.fields.add(owner + '\t' + name + '\t' + descriptor);
+			return name;
+		}
+	}
+}
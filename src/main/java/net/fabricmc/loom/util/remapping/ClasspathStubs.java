@@ -0,0 +1,177 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.remapping;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import net.fabricmc.loom.util.HashingService;
+
+/**
+ * Produces header only copies of classpath jars for TinyRemapper, which only needs the hierarchy and members of
+ * classpath classes rather than their code.
+ *
+ * <p>Stubs are kept in the user cache keyed by the content hash of the jar they were made from, so the same Minecraft
+ * jar and libraries are only ever stripped once no matter how many remappers, projects or builds use them. Which
+ * stub belongs to which jar is also remembered for the life of the daemon, whilst stubs which haven't been used for
+ * a while are removed from the cache.
+ */
+public final class ClasspathStubs {
+	public static final ClasspathStubs INSTANCE = new ClasspathStubs();
+	//Bump this if the contents of the stubs change
+	private static final int VERSION = 1;
+	private static final long EXPIRY = TimeUnit.DAYS.toMillis(30);
+
+	private final Map<String, Path> stubs = new ConcurrentHashMap<>();
+	private final Set<Path> swept = ConcurrentHashMap.newKeySet();
+
+	private ClasspathStubs() { }
+
+	/**
+	 * Get the stubs for the given classpath, in the same order. Anything which is not a jar is returned unchanged.
+	 *
+	 * @param cacheDir The user cache to keep the stubs in
+	 * @param classpath The classpath to get stubs for
+	 * @return The stubbed classpath
+	 * @throws IOException If any of the stubs could not be made
+	 */
+	public Path[] get(File cacheDir, Path... classpath) throws IOException {
+		Path stubDir = cacheDir.toPath().resolve("classpath-stubs");
+		Files.createDirectories(stubDir);
+
+		if (swept.add(stubDir.toAbsolutePath())) {
+			sweep(stubDir);
+		}
+
+		try {
+			return Arrays.stream(classpath).parallel().map(jar -> {
+				try {
+					return get(stubDir, jar);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}).toArray(Path[]::new);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private Path get(Path stubDir, Path jar) throws IOException {
+		if (!Files.isRegularFile(jar) || !jar.getFileName().toString().endsWith(".jar")) {
+			return jar;
+		}
+
+		String hash = HashingService.toHex(HashingService.INSTANCE.sha1(jar.toFile())) + '-' + VERSION;
+		Path stub = stubDir.resolve(hash + ".jar");
+		String key = stub.toAbsolutePath().toString();
+
+		if (stubs.containsKey(key) && !Files.exists(stub)) {
+			//Something else has cleared the cache out since the stub was made
+			stubs.remove(key);
+		}
+
+		return stubs.computeIfAbsent(key, k -> {
+			try {
+				if (Files.exists(stub)) {
+					//Mark the stub as used so it isn't swept away
+					Files.setLastModifiedTime(stub, FileTime.fromMillis(System.currentTimeMillis()));
+				} else {
+					write(jar, stub);
+				}
+
+				return stub;
+			} catch (IOException e) {
+				throw new UncheckedIOException(new IOException("Failed to stub " + jar, e));
+			}
+		});
+	}
+
+	private static void write(Path jar, Path stub) throws IOException {
+		Path temp = Files.createTempFile(stub.getParent(), stub.getFileName().toString(), ".tmp");
+
+		try (ZipFile zip = new ZipFile(jar.toFile());
+				ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+				ZipEntry entry = entries.nextElement();
+
+				if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+					continue;
+				}
+
+				byte[] bytes;
+
+				try (InputStream in = zip.getInputStream(entry)) {
+					bytes = IOUtils.toByteArray(in);
+				}
+
+				ClassWriter writer = new ClassWriter(0);
+				new ClassReader(bytes).accept(writer, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+				out.putNextEntry(new ZipEntry(entry.getName()));
+				out.write(writer.toByteArray());
+				out.closeEntry();
+			}
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+
+		Files.move(temp, stub, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void sweep(Path stubDir) throws IOException {
+		long cutoff = System.currentTimeMillis() - EXPIRY;
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(stubDir)) {
+			for (Path file : files) {
+				if (Files.getLastModifiedTime(file).toMillis() < cutoff) {
+					Files.deleteIfExists(file);
+					stubs.values().remove(file);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,344 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.remapping;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.gradle.api.logging.Logger;
+
+import net.fabricmc.loom.util.zip.ZipWriter;
+import net.fabricmc.tinyremapper.TinyRemapper;
+
+/**
+ * Remaps a jar, reusing the classes from the previous time it was remapped whose {@link MappingFingerprinter
+ * fingerprint} hasn't changed since.
+ *
+ * <p>The fingerprint and output name of every class is kept in a state file alongside the path of the jar they were
+ * written to. So long as that jar is still there and unchanged, only the classes whose fingerprints differ are given
+ * to TinyRemapper as inputs, with the others on the classpath so the hierarchy is complete. The other classes are
+ * then copied across from the previous jar as they are.
+ */
+public class IncrementalJarRemapper {
+	private static final int VERSION = 1;
+
+	private final Logger logger;
+	private final File stateFile;
+	private final String key;
+
+	/**
+	 * Create a remapper which keeps its state in the given file.
+	 *
+	 * @param logger The logger to report progress to
+	 * @param stateFile Where to keep the fingerprints of the last remap
+	 * @param key Describes everything about the remap which the fingerprints don't, such as the namespaces
+	 */
+	public IncrementalJarRemapper(Logger logger, File stateFile, String key) {
+		this.logger = logger;
+		this.stateFile = stateFile;
+		this.key = key;
+	}
+
+	/**
+	 * Remap the given input jar, the remapper is left for the caller to finish.
+	 *
+	 * @param index The classes of the input jar
+	 * @param fingerprinter A fingerprinter for the mappings the remapper has, over the same index
+	 * @param remapper The remapper to use, which nothing should have been read into yet
+	 * @param input The jar to remap
+	 * @param output Where to write the remapped jar
+	 * @param classpath The libraries the input jar needs
+	 * @throws IOException If there is a problem reading the input or writing the output
+	 */
+	public void remap(ClassIndex index, MappingFingerprinter fingerprinter, TinyRemapper remapper, Path input, Path output, Path[] classpath) throws IOException {
+		Map<String, byte[]> classes = new LinkedHashMap<>();
+
+		for (String name : index.getClassNames()) {
+			classes.put(name, index.getBytes(name));
+		}
+
+		Map<String, Long> fingerprints = new HashMap<>();
+
+		for (String name : classes.keySet()) {
+			fingerprints.put(name, fingerprinter.fingerprint(name));
+		}
+
+		State previous = State.read(stateFile, key, logger);
+		Map<String, String> outputs = null;
+
+		if (previous != null && previous.isUsable(output)) {
+			outputs = remapChanged(previous, remapper, classes, fingerprints, input, output, classpath);
+		}
+
+		if (outputs == null) {
+			logger.info(":remapping all {} classes", classes.size());
+			outputs = new HashMap<>();
+
+			remapAll(remapper, input, output, classpath);
+
+			for (String name : classes.keySet()) {
+				outputs.put(name, remapper.getRemapper().map(name));
+			}
+		}
+
+		State state = new State(output, Files.readAttributes(output, BasicFileAttributes.class));
+
+		for (String name : classes.keySet()) {
+			state.classes.put(name, new ClassState(fingerprints.get(name), outputs.get(name)));
+		}
+
+		state.write(stateFile, key);
+	}
+
+	/**
+	 * Remap only the classes which have changed since the previous remap.
+	 *
+	 * @return The output name of each class, or <code>null</code> if the previous jar is missing classes
+	 */
+	private Map<String, String> remapChanged(State previous, TinyRemapper remapper, Map<String, byte[]> classes, Map<String, Long> fingerprints, Path input, Path output, Path[] classpath) throws IOException {
+		Map<String, byte[]> changed = new LinkedHashMap<>();
+		Map<String, byte[]> unchanged = new LinkedHashMap<>();
+
+		for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+			ClassState last = previous.classes.get(entry.getKey());
+
+			if (last != null && last.fingerprint == fingerprints.get(entry.getKey())) {
+				unchanged.put(entry.getKey(), entry.getValue());
+			} else {
+				changed.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		Map<String, String> outputs = new HashMap<>();
+
+		try (ZipFile previousJar = new ZipFile(previous.jar.toFile())) {
+			for (String name : unchanged.keySet()) {
+				if (previousJar.getEntry(previous.classes.get(name).output + ".class") == null) {
+					logger.info("Previously remapped jar {} is missing {}, remapping everything", previous.jar, name);
+					return null;
+				}
+			}
+
+			logger.lifecycle(":remapping {} of {} classes, reusing the rest from {}", changed.size(), classes.size(), previous.jar.getFileName());
+
+			Path changedJar = Files.createTempFile("loom-remap-changed", ".jar");
+			Path unchangedJar = Files.createTempFile("loom-remap-unchanged", ".jar");
+
+			try (ZipWriter writer = new ZipWriter(output)) {
+				//Resources go first so the manifest stays at the front, where JarInputStream expects it
+				writer.copy(input, name -> !name.endsWith(".class"));
+
+				writeClasses(changedJar, changed);
+				writeClasses(unchangedJar, unchanged);
+
+				remapper.readClassPath(classpath);
+				remapper.readClassPath(unchangedJar);
+				remapper.readInputs(changedJar);
+
+				Map<String, byte[]> remapped = new ConcurrentHashMap<>();
+				remapper.apply(remapped::put);
+
+				for (Map.Entry<String, byte[]> entry : new TreeMap<>(remapped).entrySet()) {
+					writer.write(entry.getKey() + ".class", entry.getValue());
+				}
+
+				for (String name : changed.keySet()) {
+					outputs.put(name, remapper.getRemapper().map(name));
+				}
+
+				Set<String> reused = new HashSet<>();
+
+				for (String name : unchanged.keySet()) {
+					String outputName = previous.classes.get(name).output;
+					reused.add(outputName + ".class");
+					outputs.put(name, outputName);
+				}
+
+				writer.copy(previous.jar, reused::contains);
+				writer.finish();
+			} finally {
+				Files.deleteIfExists(changedJar);
+				Files.deleteIfExists(unchangedJar);
+			}
+		}
+
+		return outputs;
+	}
+
+	/**
+	 * Remap the whole of the given input jar, the remapper is left for the caller to finish.
+	 *
+	 * <p>Everything other than classes in the input jar is copied across first without being inflated and deflated again,
+	 * then the remapped classes are written in name order.
+	 *
+	 * @param remapper The remapper to use, which nothing should have been read into yet
+	 * @param input The jar to remap
+	 * @param output Where to write the remapped jar
+	 * @param classpath The libraries the input jar needs
+	 * @throws IOException If there is a problem reading the input or writing the output
+	 */
+	public static void remapAll(TinyRemapper remapper, Path input, Path output, Path... classpath) throws IOException {
+		remapper.readClassPath(classpath);
+		remapper.readInputs(input);
+
+		Map<String, byte[]> remapped = new ConcurrentHashMap<>();
+		remapper.apply(remapped::put);
+
+		try (ZipWriter writer = new ZipWriter(output)) {
+			//Resources go first so the manifest stays at the front, where JarInputStream expects it
+			writer.copy(input, name -> !name.endsWith(".class"));
+
+			for (Map.Entry<String, byte[]> entry : new TreeMap<>(remapped).entrySet()) {
+				writer.write(entry.getKey() + ".class", entry.getValue());
+			}
+
+			writer.finish();
+		}
+	}
+
+	private static void writeClasses(Path jar, Map<String, byte[]> classes) throws IOException {
+		try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(jar)))) {
+			//Only read back once, not worth spending the time compressing
+			zip.setLevel(Deflater.NO_COMPRESSION);
+
+			for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+				zip.putNextEntry(new ZipEntry(entry.getKey() + ".class"));
+				zip.write(entry.getValue());
+				zip.closeEntry();
+			}
+		}
+	}
+
+	private static final class State {
+		final Path jar;
+		final long size;
+		final long modified;
+		final Map<String, ClassState> classes = new HashMap<>();
+
+		State(Path jar, long size, long modified) {
+			this.jar = jar;
+			this.size = size;
+			this.modified = modified;
+		}
+
+		State(Path jar, BasicFileAttributes attributes) {
+			this(jar, attributes.size(), attributes.lastModifiedTime().toMillis());
+		}
+
+		static State read(File file, String key, Logger logger) {
+			if (!file.exists()) {
+				return null;
+			}
+
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+				if (in.readInt() != VERSION || !key.equals(in.readUTF())) {
+					return null;
+				}
+
+				State state = new State(new File(in.readUTF()).toPath(), in.readLong(), in.readLong());
+
+				for (int i = in.readInt(); i > 0; i--) {
+					state.classes.put(in.readUTF(), new ClassState(in.readLong(), in.readUTF()));
+				}
+
+				return state;
+			} catch (IOException e) {
+				logger.warn("Error reading remap state '{}', remapping everything", file);
+				return null;
+			}
+		}
+
+		/**
+		 * Whether the jar from last time is still there as it was written, and isn't about to be overwritten.
+		 */
+		boolean isUsable(Path output) {
+			if (jar.toAbsolutePath().equals(output.toAbsolutePath())) {
+				return false;
+			}
+
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+				return attributes.size() == size && attributes.lastModifiedTime().toMillis() == modified;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		void write(File file, String key) throws IOException {
+			File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+				out.writeInt(VERSION);
+				out.writeUTF(key);
+				out.writeUTF(jar.toAbsolutePath().toString());
+				out.writeLong(size);
+				out.writeLong(modified);
+				out.writeInt(classes.size());
+
+				for (Map.Entry<String, ClassState> entry : classes.entrySet()) {
+					out.writeUTF(entry.getKey());
+					out.writeLong(entry.getValue().fingerprint);
+					out.writeUTF(entry.getValue().output);
+				}
+			} catch (IOException e) {
+				temp.delete();
+				throw e;
+			}
+
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	private static final class ClassState {
+		final long fingerprint;
+		final String output;
+
+		ClassState(long fingerprint, String output) {
+			this.fingerprint = fingerprint;
+			this.output = output;
+		}
+	}
+}
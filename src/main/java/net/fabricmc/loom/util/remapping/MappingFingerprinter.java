@@ -0,0 +1,237 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.remapping;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import net.fabricmc.mapping.tree.ClassDef;
+import net.fabricmc.mapping.tree.FieldDef;
+import net.fabricmc.mapping.tree.LocalVariableDef;
+import net.fabricmc.mapping.tree.MethodDef;
+import net.fabricmc.mapping.tree.ParameterDef;
+import net.fabricmc.mapping.tree.TinyTree;
+
+/**
+ * Works out a fingerprint for each class of a jar which only changes when remapping the class would give a
+ * different result, either because the class itself or the mappings of something it uses have changed.
+ *
+ * <p>A class's fingerprint covers its own bytes, the mapped name of every class it mentions, the mapped name of
+ * every field and method it declares or uses, and its own parameter and local names. Member uses are resolved
+ * through the jar's class hierarchy to the class which declares them. As TinyRemapper propagates method names
+ * through the hierarchy, methods are fingerprinted by their intermediary name, which is shared by every method in
+ * the same hierarchy, rather than by the mapping on the class they were found on.
+ */
+public class MappingFingerprinter {
+	private static final String INTERMEDIARY = "intermediary";
+
+	private final String from;
+	private final String to;
+	private final boolean remapLocalVariables;
+
+	private final Map<String, ClassDef> mappedClasses = new HashMap<>();
+	private final Map<String, Map<String, MethodDef>> mappedMethods = new HashMap<>();
+	private final Map<String, Map<String, FieldDef>> mappedFields = new HashMap<>();
+	private final Map<String, String> methodFamilies = new HashMap<>();
+
+	private final ClassIndex index;
+	private final Map<String, String> resolvedMethods = new HashMap<>();
+	private final Map<String, String> resolvedFields = new HashMap<>();
+
+	private MappingFingerprinter(ClassIndex index, TinyTree mappings, String from, String to, boolean remapLocalVariables) {
+		this.index = index;
+		this.from = from;
+		this.to = to;
+		this.remapLocalVariables = remapLocalVariables;
+
+		Map<String, Set<String>> families = new HashMap<>();
+
+		for (ClassDef classDef : mappings.getClasses()) {
+			String className = classDef.getName(from);
+			mappedClasses.put(className, classDef);
+
+			Map<String, MethodDef> methods = new HashMap<>();
+
+			for (MethodDef method : classDef.getMethods()) {
+				methods.put(method.getName(from) + method.getDescriptor(from), method);
+				families.computeIfAbsent(method.getName(INTERMEDIARY), k -> new TreeSet<>()).add(method.getName(to));
+			}
+
+			mappedMethods.put(className, methods);
+
+			Map<String, FieldDef> fields = new HashMap<>();
+
+			for (FieldDef field : classDef.getFields()) {
+				fields.put(field.getName(from) + ';' + field.getDescriptor(from), field);
+			}
+
+			mappedFields.put(className, fields);
+		}
+
+		families.forEach((family, names) -> methodFamilies.put(family, family + '=' + String.join(",", names)));
+	}
+
+	/**
+	 * Create a fingerprinter for remapping the classes of the given index between the given namespaces.
+	 *
+	 * @return A new fingerprinter, or <code>null</code> if the mappings have no intermediary namespace to group
+	 * methods by
+	 */
+	public static MappingFingerprinter create(ClassIndex index, TinyTree mappings, String from, String to, boolean remapLocalVariables) {
+		if (!mappings.getMetadata().getNamespaces().contains(INTERMEDIARY)) {
+			return null;
+		}
+
+		return new MappingFingerprinter(index, mappings, from, to, remapLocalVariables);
+	}
+
+	public long fingerprint(String className) {
+		ClassIndex.IndexedClass node = index.get(className);
+
+		if (node == null) {
+			throw new IllegalArgumentException("Unknown class " + className);
+		}
+
+		Hasher hasher = Hashing.murmur3_128().newHasher();
+		hasher.putLong(node.checksum);
+
+		for (String name : node.classes) {
+			hasher.putUnencodedChars(name).putChar('>').putUnencodedChars(mapClass(name)).putChar('\n');
+		}
+
+		for (String method : node.methods) {
+			hasher.putUnencodedChars(method).putChar('>').putUnencodedChars(resolvedMethods.computeIfAbsent(method, this::resolveMethod)).putChar('\n');
+		}
+
+		for (String field : node.fields) {
+			hasher.putUnencodedChars(field).putChar('>').putUnencodedChars(resolvedFields.computeIfAbsent(field, this::resolveField)).putChar('\n');
+		}
+
+		ClassDef classDef = mappedClasses.get(className);
+
+		if (remapLocalVariables && classDef != null) {
+			for (MethodDef method : classDef.getMethods()) {
+				hasher.putUnencodedChars(method.getName(from)).putUnencodedChars(method.getDescriptor(from));
+
+				for (ParameterDef parameter : method.getParameters()) {
+					hasher.putInt(parameter.getLocalVariableIndex()).putUnencodedChars(parameter.getName(to)).putChar('\n');
+				}
+
+				for (LocalVariableDef localVariable : method.getLocalVariables()) {
+					hasher.putInt(localVariable.getLocalVariableIndex()).putInt(localVariable.getLocalVariableStartOffset())
+							.putInt(localVariable.getLocalVariableTableIndex()).putUnencodedChars(localVariable.getName(to)).putChar('\n');
+				}
+			}
+		}
+
+		return hasher.hash().asLong();
+	}
+
+	private String mapClass(String name) {
+		ClassDef classDef = mappedClasses.get(name);
+		return classDef != null ? classDef.getName(to) : name;
+	}
+
+	private String resolveMethod(String method) {
+		String[] parts = method.split("\t", 3);
+
+		if (parts[2].isEmpty()) {
+			//A lambda's implemented method, which is only known by name
+			Set<String> families = new TreeSet<>();
+
+			for (String owner : hierarchy(parts[0])) {
+				for (MethodDef methodDef : mappedMethods.getOrDefault(owner, Collections.emptyMap()).values()) {
+					if (parts[1].equals(methodDef.getName(from))) {
+						families.add(methodFamilies.getOrDefault(methodDef.getName(INTERMEDIARY), ""));
+					}
+				}
+			}
+
+			return String.join(";", families);
+		}
+
+		for (String owner : hierarchy(parts[0])) {
+			MethodDef methodDef = mappedMethods.getOrDefault(owner, Collections.emptyMap()).get(parts[1] + parts[2]);
+
+			if (methodDef != null) {
+				return methodFamilies.getOrDefault(methodDef.getName(INTERMEDIARY), "");
+			}
+		}
+
+		return "";
+	}
+
+	private String resolveField(String field) {
+		String[] parts = field.split("\t", 3);
+
+		for (String owner : hierarchy(parts[0])) {
+			FieldDef fieldDef = mappedFields.getOrDefault(owner, Collections.emptyMap()).get(parts[1] + ';' + parts[2]);
+
+			if (fieldDef != null) {
+				return owner + '.' + fieldDef.getName(to);
+			}
+		}
+
+		return "";
+	}
+
+	/**
+	 * Get the given class and all of its supertypes which are in the jar, nearest first.
+	 */
+	private Set<String> hierarchy(String className) {
+		Set<String> seen = new LinkedHashSet<>();
+		Queue<String> queue = new ArrayDeque<>();
+		queue.add(className);
+
+		while (!queue.isEmpty()) {
+			String name = queue.poll();
+
+			if (!seen.add(name)) {
+				continue;
+			}
+
+			ClassIndex.IndexedClass node = index.get(name);
+
+			if (node != null) {
+				if (node.superName != null) {
+					queue.add(node.superName);
+				}
+
+				Collections.addAll(queue, node.interfaces);
+			}
+		}
+
+		return seen;
+	}
+}
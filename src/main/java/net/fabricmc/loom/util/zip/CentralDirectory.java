@@ -0,0 +1,174 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.zip;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The entries of a zip as listed in its central directory, with enough of each record kept to copy the entry's
+ * compressed data elsewhere without having to inflate it.
+ *
+ * <p>Only plain zips are understood, anything using zip64 or spanning multiple disks is left for
+ * {@link java.util.zip} to handle.
+ */
+final class CentralDirectory {
+	static final int LOCAL_HEADER = 0x04034b50;
+	static final int CENTRAL_HEADER = 0x02014b50;
+	static final int END_HEADER = 0x06054b50;
+	static final int ZIP64_END_HEADER = 0x06064b50;
+	static final int ZIP64_LOCATOR = 0x07064b50;
+
+	static final int LOCAL_HEADER_SIZE = 30;
+	static final int CENTRAL_HEADER_SIZE = 46;
+	static final int END_SIZE = 22;
+	static final int ZIP64_END_SIZE = 56;
+	static final int ZIP64_LOCATOR_SIZE = 20;
+	static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+	static final int FLAG_UTF8 = 1 << 11;
+
+	private CentralDirectory() { }
+
+	/**
+	 * Read the central directory of the given zip.
+	 *
+	 * @return The entries in the order they are listed, or {@code null} if the zip can't be copied raw
+	 * @throws IOException If the zip is malformed or cannot be read
+	 */
+	static List<Record> read(FileChannel channel) throws IOException {
+		long size = channel.size();
+
+		if (size < END_SIZE) {
+			throw new IOException("Zip is too small to be valid");
+		}
+
+		int tailSize = (int) Math.min(size, END_SIZE + 0xFFFF);
+		ByteBuffer tail = readFully(channel, size - tailSize, tailSize);
+		int end = -1;
+
+		for (int i = tailSize - END_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_HEADER && i + END_SIZE + (tail.getShort(i + 20) & 0xFFFF) == tailSize) {
+				end = i;
+				break;
+			}
+		}
+
+		if (end < 0) {
+			throw new IOException("Could not find the end of the central directory");
+		}
+
+		if (end >= 20 && tail.getInt(end - 20) == ZIP64_LOCATOR) {
+			return null;
+		}
+
+		int disk = tail.getShort(end + 4) & 0xFFFF;
+		int centralDisk = tail.getShort(end + 6) & 0xFFFF;
+		int count = tail.getShort(end + 10) & 0xFFFF;
+		long centralSize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+		long centralOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+
+		if (disk != 0 || centralDisk != 0 || count == 0xFFFF || centralSize == 0xFFFFFFFFL || centralOffset == 0xFFFFFFFFL) {
+			return null;
+		}
+
+		ByteBuffer central = readFully(channel, centralOffset, (int) centralSize);
+		List<Record> records = new ArrayList<>(count);
+
+		for (int i = 0, position = 0; i < count; i++) {
+			if (position + CENTRAL_HEADER_SIZE > central.limit() || central.getInt(position) != CENTRAL_HEADER) {
+				throw new IOException("Malformed central directory entry " + i);
+			}
+
+			int nameLength = central.getShort(position + 28) & 0xFFFF;
+			int extraLength = central.getShort(position + 30) & 0xFFFF;
+			int commentLength = central.getShort(position + 32) & 0xFFFF;
+			int recordLength = CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+
+			byte[] record = new byte[recordLength];
+			central.position(position);
+			central.get(record);
+			records.add(new Record(record));
+			position += recordLength;
+		}
+
+		return records;
+	}
+
+	static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Zip ended unexpectedly");
+			}
+		}
+
+		buffer.flip();
+		return buffer;
+	}
+
+	static final class Record {
+		/**
+		 * The central directory record as it was read, ready to be written out again.
+		 */
+		final ByteBuffer raw;
+		final String name;
+
+		Record(byte[] raw) {
+			this.raw = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+			this.name = new String(raw, CENTRAL_HEADER_SIZE, getNameLength(), StandardCharsets.UTF_8);
+		}
+
+		int getFlags() {
+			return raw.getShort(8) & 0xFFFF;
+		}
+
+		int getCrc() {
+			return raw.getInt(16);
+		}
+
+		int getCompressedSize() {
+			return raw.getInt(20);
+		}
+
+		int getSize() {
+			return raw.getInt(24);
+		}
+
+		int getNameLength() {
+			return raw.getShort(28) & 0xFFFF;
+		}
+
+		long getLocalOffset() {
+			return raw.getInt(42) & 0xFFFFFFFFL;
+		}
+	}
+}
@@ -22,49 +22,31 @@
  * SOFTWARE.
  */
 
-package net.fabricmc.loom.util;
+package net.fabricmc.loom.util.zip;
 
-import java.io.File;
 import java.io.IOException;
-
-import com.google.common.hash.HashCode;
-import com.google.common.hash.Hashing;
-import com.google.common.io.Files;
-import org.gradle.api.logging.Logger;
-import org.gradle.api.logging.Logging;
-
-public class Checksum {
-	private static final Logger log = Logging.getLogger(Checksum.class);
-
-	public static boolean equals(File file, String checksum) {
-		if (file == null) {
-			return false;
-		}
-
-		try {
-			//noinspection deprecation
-			HashCode hash = Files.asByteSource(file).hash(Hashing.sha1());
-			StringBuilder builder = new StringBuilder();
-
-			for (Byte hashBytes : hash.asBytes()) {
-				builder.append(Integer.toString((hashBytes & 0xFF) + 0x100, 16).substring(1));
-			}
-
-			log.debug("Checksum check: '" + builder.toString() + "' == '" + checksum + "'?");
-			return builder.toString().equals(checksum);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return false;
+import java.nio.charset.StandardCharsets;
+
+@FunctionalInterface
+public interface EntryTransformer {
+	/**
+	 * Transform the contents of an entry.
+	 *
+	 * @param data The current contents of the entry, or {@code null} if it doesn't exist
+	 * @return The new contents of the entry, or {@code null} to remove it
+	 * @throws IOException If the entry cannot be transformed
+	 */
+	byte[] transform(byte[] data) throws IOException;
+
+	/**
+	 * Wrap a transformation of an entry's text, as UTF-8, which is only applied if the entry exists.
+	 */
+	static EntryTransformer ofString(StringTransformer transformer) {
+		return data -> data == null ? null : transformer.transform(new String(data, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
 	}
 
-	public static byte[] sha256(File file) {
-		try {
-			HashCode hash = Files.asByteSource(file).hash(Hashing.sha256());
-			return hash.asBytes();
-		} catch (IOException e) {
-			throw new RuntimeException("Failed to get file hash");
-		}
+	@FunctionalInterface
+	interface StringTransformer {
+		String transform(String data) throws IOException;
 	}
 }
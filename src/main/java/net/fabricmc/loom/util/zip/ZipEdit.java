@@ -0,0 +1,247 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.zip;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import net.fabricmc.loom.util.HashingService;
+import net.fabricmc.loom.util.zip.CentralDirectory.Record;
+
+/**
+ * A set of changes to make to a zip, all of which are made at once in a single pass when {@link #commit()}ed.
+ *
+ * <p>Entries which aren't changed have their compressed data copied straight across without being inflated. Only zips
+ * without zip64 extensions can be copied this way, anything else falls back to being rewritten through
+ * {@link java.util.zip}. The zip is written to a temporary file which then replaces the original, so a failed edit
+ * leaves it untouched.
+ */
+public final class ZipEdit {
+	private final Path zip;
+	private final Map<String, List<Operation>> operations = new LinkedHashMap<>();
+
+	public ZipEdit(Path zip) {
+		this.zip = zip;
+	}
+
+	public ZipEdit(File zip) {
+		this(zip.toPath());
+	}
+
+	/**
+	 * Add the given entry, replacing it if it already exists.
+	 */
+	public ZipEdit put(String name, byte[] data) {
+		return queue(name, true, existing -> data);
+	}
+
+	/**
+	 * Add the given file as an entry, replacing it if it already exists. The file is not read until the edit is
+	 * committed.
+	 */
+	public ZipEdit put(String name, Path file) {
+		return queue(name, true, existing -> Files.readAllBytes(file));
+	}
+
+	/**
+	 * Replace the given entry, if it already exists.
+	 */
+	public ZipEdit replace(String name, byte[] data) {
+		return queue(name, false, existing -> data);
+	}
+
+	/**
+	 * Transform the given entry, if it already exists. Any changes already queued for the entry will have been applied
+	 * to the data the transformer is given.
+	 */
+	public ZipEdit transform(String name, EntryTransformer transformer) {
+		return queue(name, false, transformer);
+	}
+
+	private ZipEdit queue(String name, boolean create, EntryTransformer transformer) {
+		operations.computeIfAbsent(name, k -> new ArrayList<>()).add(new Operation(create, transformer));
+		return this;
+	}
+
+	public boolean hasChanges() {
+		return !operations.isEmpty();
+	}
+
+	/**
+	 * Make all the queued changes to the zip.
+	 *
+	 * @throws IOException If the zip couldn't be read or written, or any of the transformers failed
+	 */
+	public void commit() throws IOException {
+		if (operations.isEmpty()) {
+			return;
+		}
+
+		try {
+			try (ZipWriter writer = new ZipWriter(zip)) {
+				if (writeRaw(writer)) {
+					writer.finish();
+					return;
+				}
+			}
+
+			writeReencoded();
+		} finally {
+			operations.clear();
+		}
+	}
+
+	private byte[] apply(String name, byte[] data) throws IOException {
+		for (Operation operation : operations.get(name)) {
+			if (data != null || operation.create) {
+				data = operation.transformer.transform(data);
+			}
+		}
+
+		return data;
+	}
+
+	/**
+	 * Write the edited zip by copying the compressed data of every unchanged entry directly.
+	 *
+	 * @return Whether the zip could be written this way
+	 */
+	private boolean writeRaw(ZipWriter writer) throws IOException {
+		try (FileChannel in = FileChannel.open(zip, StandardOpenOption.READ)) {
+			List<Record> records = CentralDirectory.read(in);
+
+			if (records == null) {
+				return false;
+			}
+
+			Map<String, List<Operation>> remaining = new LinkedHashMap<>(operations);
+
+			try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+				for (Record record : records) {
+					if (remaining.remove(record.name) == null) {
+						writer.copy(in, record);
+						continue;
+					}
+
+					byte[] data;
+
+					try (InputStream stream = zipFile.getInputStream(zipFile.getEntry(record.name))) {
+						data = apply(record.name, IOUtils.toByteArray(stream));
+					}
+
+					if (data != null) {
+						writer.write(record.name, data, record.raw.getInt(12));
+					}
+				}
+			}
+
+			for (String name : remaining.keySet()) {
+				byte[] data = apply(name, null);
+
+				if (data != null) {
+					writer.write(name, data);
+				}
+			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * Write the edited zip by inflating and deflating every entry, for zips which can't be copied raw.
+	 */
+	private void writeReencoded() throws IOException {
+		Map<String, List<Operation>> remaining = new LinkedHashMap<>(operations);
+		Path temp = Files.createTempFile(zip.toAbsolutePath().getParent(), zip.getFileName().toString(), ".tmp");
+
+		try {
+			try (ZipFile zipFile = new ZipFile(zip.toFile());
+					ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements(); ) {
+					ZipEntry entry = entries.nextElement();
+					byte[] data;
+
+					try (InputStream stream = zipFile.getInputStream(entry)) {
+						data = IOUtils.toByteArray(stream);
+					}
+
+					if (remaining.remove(entry.getName()) != null) {
+						data = apply(entry.getName(), data);
+					}
+
+					if (data != null) {
+						ZipEntry copy = new ZipEntry(entry.getName());
+						copy.setTime(entry.getTime());
+						out.putNextEntry(copy);
+						out.write(data);
+						out.closeEntry();
+					}
+				}
+
+				for (String name : remaining.keySet()) {
+					byte[] data = apply(name, null);
+
+					if (data != null) {
+						out.putNextEntry(new ZipEntry(name));
+						out.write(data);
+						out.closeEntry();
+					}
+				}
+			}
+
+			Files.move(temp, zip, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			HashingService.INSTANCE.invalidate(zip.toFile());
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static final class Operation {
+		final boolean create;
+		final EntryTransformer transformer;
+
+		Operation(boolean create, EntryTransformer transformer) {
+			this.create = create;
+			this.transformer = transformer;
+		}
+	}
+}
@@ -0,0 +1,403 @@
+/*
+ * This file is part of fabric-loom, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) 2016, 2017, 2018 FabricMC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.fabricmc.loom.util.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+
+import net.fabricmc.loom.util.HashingService;
+import net.fabricmc.loom.util.zip.CentralDirectory.Record;
+
+/**
+ * Writes a zip which can have entries copied into it from other zips without them being inflated and deflated again.
+ *
+ * <p>The zip is written to a temporary file, which only replaces the output once {@link #finish()} is called. Closing
+ * the writer without finishing it throws away whatever was written.
+ *
+ * <p>Zip64 records are only written once the zip needs them, either by having more than 65535 entries or by growing
+ * past 4GB. No single entry can be that large, as every entry is either held in memory or copied from a zip which
+ * doesn't use zip64.
+ */
+public final class ZipWriter implements Closeable {
+	//Offsets and sizes at or past this have to be given in zip64 records instead
+	private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+	private static final int ZIP64_EXTRA = 0x0001;
+	private static final int ZIP64_VERSION = 45;
+
+	private final Path output;
+	private final Path temp;
+	private final FileChannel out;
+	private final List<ByteBuffer> central = new ArrayList<>();
+	private final Set<String> names = new HashSet<>();
+	private final int now = dosTime(System.currentTimeMillis());
+	private boolean finished;
+
+	public ZipWriter(Path output) throws IOException {
+		this.output = output;
+		this.temp = Files.createTempFile(output.toAbsolutePath().getParent(), output.getFileName().toString(), ".tmp");
+		this.out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Write a new entry, deflating it unless it is empty.
+	 *
+	 * @throws IOException If an entry with the given name has already been written
+	 */
+	public void write(String name, byte[] data) throws IOException {
+		write(name, data, now);
+	}
+
+	/**
+	 * Copy the entries of the given zip which match the filter and haven't already been written. Their compressed
+	 * data is copied across as it is, unless the zip uses zip64.
+	 */
+	public void copy(Path zip, Predicate<String> filter) throws IOException {
+		try (FileChannel in = FileChannel.open(zip, StandardOpenOption.READ)) {
+			List<Record> records = CentralDirectory.read(in);
+
+			if (records != null) {
+				for (Record record : records) {
+					if (filter.test(record.name)) {
+						copy(in, record);
+					}
+				}
+
+				return;
+			}
+		}
+
+		try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+			for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements(); ) {
+				ZipEntry entry = entries.nextElement();
+
+				if (!filter.test(entry.getName()) || names.contains(entry.getName())) {
+					continue;
+				}
+
+				try (InputStream stream = zipFile.getInputStream(entry)) {
+					write(entry.getName(), IOUtils.toByteArray(stream), dosTime(entry.getTime()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy an entry's local header and compressed data across as they are, unless it has already been written.
+	 */
+	synchronized void copy(FileChannel in, Record record) throws IOException {
+		if (!names.add(record.name)) {
+			return;
+		}
+
+		long offset = record.getLocalOffset();
+		ByteBuffer header = CentralDirectory.readFully(in, offset, CentralDirectory.LOCAL_HEADER_SIZE);
+
+		if (header.getInt(0) != CentralDirectory.LOCAL_HEADER) {
+			throw new IOException("Malformed local header for " + record.name);
+		}
+
+		int variableLength = (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+		ByteBuffer local = buffer(CentralDirectory.LOCAL_HEADER_SIZE + variableLength);
+		local.put(header);
+		local.put(CentralDirectory.readFully(in, offset + CentralDirectory.LOCAL_HEADER_SIZE, variableLength));
+		local.flip();
+
+		//Always write the sizes up front, so any data descriptor after the data can be dropped
+		local.putShort(6, (short) (record.getFlags() & ~CentralDirectory.FLAG_DATA_DESCRIPTOR));
+		local.putInt(14, record.getCrc());
+		local.putInt(18, record.getCompressedSize());
+		local.putInt(22, record.getSize());
+
+		long newOffset = out.position();
+		writeFully(local);
+
+		long dataStart = offset + local.limit();
+		long dataLength = record.getCompressedSize() & 0xFFFFFFFFL;
+
+		for (long copied = 0; copied < dataLength; ) {
+			long transferred = in.transferTo(dataStart + copied, dataLength - copied, out);
+
+			if (transferred <= 0) {
+				throw new IOException("Zip ended unexpectedly in " + record.name);
+			}
+
+			copied += transferred;
+		}
+
+		ByteBuffer entry = buffer(record.raw.capacity());
+		entry.put(record.raw.duplicate());
+		entry.putShort(8, (short) (record.getFlags() & ~CentralDirectory.FLAG_DATA_DESCRIPTOR));
+		central.add(withOffset(entry, newOffset));
+	}
+
+	synchronized void write(String name, byte[] data, int dosTime) throws IOException {
+		if (!names.add(name)) {
+			throw new IOException("Duplicate zip entry " + name);
+		}
+
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		int flags = nameBytes.length != name.length() ? CentralDirectory.FLAG_UTF8 : 0;
+
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		int method;
+		byte[] compressed;
+
+		if (data.length == 0) {
+			method = ZipEntry.STORED;
+			compressed = data;
+		} else {
+			method = ZipEntry.DEFLATED;
+			compressed = deflate(data);
+		}
+
+		long offset = out.position();
+
+		ByteBuffer local = buffer(CentralDirectory.LOCAL_HEADER_SIZE + nameBytes.length);
+		local.putInt(CentralDirectory.LOCAL_HEADER);
+		local.putShort((short) 20);
+		local.putShort((short) flags);
+		local.putShort((short) method);
+		local.putInt(dosTime);
+		local.putInt((int) crc.getValue());
+		local.putInt(compressed.length);
+		local.putInt(data.length);
+		local.putShort((short) nameBytes.length);
+		local.putShort((short) 0);
+		local.put(nameBytes);
+		local.flip();
+		writeFully(local);
+		writeFully(ByteBuffer.wrap(compressed));
+
+		ByteBuffer record = buffer(CentralDirectory.CENTRAL_HEADER_SIZE + nameBytes.length);
+		record.putInt(CentralDirectory.CENTRAL_HEADER);
+		record.putShort((short) 20);
+		record.putShort((short) 20);
+		record.putShort((short) flags);
+		record.putShort((short) method);
+		record.putInt(dosTime);
+		record.putInt((int) crc.getValue());
+		record.putInt(compressed.length);
+		record.putInt(data.length);
+		record.putShort((short) nameBytes.length);
+		record.putShort((short) 0);
+		record.putShort((short) 0);
+		record.putShort((short) 0);
+		record.putShort((short) 0);
+		record.putInt(0);
+		record.putInt(0);
+		record.put(nameBytes);
+		central.add(withOffset(record, offset));
+	}
+
+	/**
+	 * Fill in the local header offset of a central directory record, adding a zip64 extra field to hold it if it is too
+	 * far into the zip to fit in the record itself.
+	 */
+	private static ByteBuffer withOffset(ByteBuffer record, long offset) {
+		if (offset < ZIP64_LIMIT) {
+			record.putInt(42, (int) offset);
+			record.rewind();
+			return record;
+		}
+
+		int nameLength = record.getShort(28) & 0xFFFF;
+		int extraLength = record.getShort(30) & 0xFFFF;
+		int commentLength = record.getShort(32) & 0xFFFF;
+		int extraStart = CentralDirectory.CENTRAL_HEADER_SIZE + nameLength;
+
+		ByteBuffer extra = buffer(extraLength + 12);
+
+		//Any existing zip64 field would be read instead of the new one, so they are dropped
+		for (int position = extraStart; position + 4 <= extraStart + extraLength; ) {
+			int id = record.getShort(position) & 0xFFFF;
+			int size = record.getShort(position + 2) & 0xFFFF;
+
+			if (id != ZIP64_EXTRA) {
+				ByteBuffer field = record.duplicate();
+				field.limit(Math.min(position + 4 + size, extraStart + extraLength)).position(position);
+				extra.put(field);
+			}
+
+			position += 4 + size;
+		}
+
+		extra.putShort((short) ZIP64_EXTRA);
+		extra.putShort((short) 8);
+		extra.putLong(offset);
+		extra.flip();
+
+		ByteBuffer rebuilt = buffer(extraStart + extra.remaining() + commentLength);
+		ByteBuffer header = record.duplicate();
+		header.limit(extraStart).position(0);
+		rebuilt.put(header);
+		rebuilt.put(extra);
+		ByteBuffer comment = record.duplicate();
+		comment.limit(extraStart + extraLength + commentLength).position(extraStart + extraLength);
+		rebuilt.put(comment);
+
+		rebuilt.putShort(6, (short) Math.max(record.getShort(6) & 0xFFFF, ZIP64_VERSION));
+		rebuilt.putShort(30, (short) (extra.limit()));
+		rebuilt.putInt(42, (int) ZIP64_LIMIT);
+		rebuilt.rewind();
+		return rebuilt;
+	}
+
+	private static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+			byte[] buffer = new byte[8192];
+
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Write out the central directory and replace the output with the finished zip.
+	 */
+	public synchronized void finish() throws IOException {
+		long centralOffset = out.position();
+
+		for (ByteBuffer record : central) {
+			writeFully(record);
+		}
+
+		long centralSize = out.position() - centralOffset;
+		int count = central.size();
+
+		if (count >= 0xFFFF || centralOffset >= ZIP64_LIMIT || centralSize >= ZIP64_LIMIT) {
+			long zip64End = out.position();
+
+			ByteBuffer record = buffer(CentralDirectory.ZIP64_END_SIZE);
+			record.putInt(CentralDirectory.ZIP64_END_HEADER);
+			record.putLong(CentralDirectory.ZIP64_END_SIZE - 12);
+			record.putShort((short) ZIP64_VERSION);
+			record.putShort((short) ZIP64_VERSION);
+			record.putInt(0);
+			record.putInt(0);
+			record.putLong(count);
+			record.putLong(count);
+			record.putLong(centralSize);
+			record.putLong(centralOffset);
+			record.flip();
+			writeFully(record);
+
+			ByteBuffer locator = buffer(CentralDirectory.ZIP64_LOCATOR_SIZE);
+			locator.putInt(CentralDirectory.ZIP64_LOCATOR);
+			locator.putInt(0);
+			locator.putLong(zip64End);
+			locator.putInt(1);
+			locator.flip();
+			writeFully(locator);
+		}
+
+		//Anything too big to fit is left for the zip64 record to give
+		ByteBuffer end = buffer(CentralDirectory.END_SIZE);
+		end.putInt(CentralDirectory.END_HEADER);
+		end.putShort((short) 0);
+		end.putShort((short) 0);
+		end.putShort((short) Math.min(count, 0xFFFF));
+		end.putShort((short) Math.min(count, 0xFFFF));
+		end.putInt((int) Math.min(centralSize, ZIP64_LIMIT));
+		end.putInt((int) Math.min(centralOffset, ZIP64_LIMIT));
+		end.putShort((short) 0);
+		end.flip();
+		writeFully(end);
+
+		out.close();
+		Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		HashingService.INSTANCE.invalidate(output.toFile());
+		finished = true;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (!finished) {
+			out.close();
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+	}
+
+	private static ByteBuffer buffer(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Pack the given time into the MS-DOS form used by zips, with the time in the low half and the date in the high.
+	 */
+	static int dosTime(long millis) {
+		LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+
+		if (time.getYear() < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+
+		return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16
+				| time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+	}
+}
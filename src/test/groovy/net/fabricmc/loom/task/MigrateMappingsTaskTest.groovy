@@ -0,0 +1,35 @@
+package net.fabricmc.loom.task
+
+import java.nio.file.Path
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class MigrateMappingsTaskTest extends Specification {
+	@Rule
+	TemporaryFolder testDir = new TemporaryFolder()
+
+	@Unroll
+	def "#description is #result"() {
+		given:
+		Path file = testDir.newFile("Example.java").toPath()
+		file.text = source
+
+		expect:
+		MigrateMappingsTask.referencesAny(file, names as Set) == result
+
+		where:
+		description                       | source                                          | names                 | result
+		"a method call"                   | "class A { void a() { b.getBlock(); } }"        | ["getBlock"]          | true
+		"a class in an import"            | "import net.minecraft.block.Block;\nclass A {}" | ["Block"]             | true
+		"a name at the end of the file"   | "class A extends Block"                         | ["Block"]             | true
+		"a name in a comment"             | "//getBlock\nclass A {}"                        | ["getBlock"]          | true
+		"a name within a longer name"     | "class A { void a() { b.getBlockState(); } }"   | ["getBlock"]          | false
+		"a name with a longer prefix"     | "class A { BlockState state; }"                 | ["State"]             | false
+		"a name joined by an underscore"  | "class A { int field_1234; }"                   | ["field_1"]           | false
+		"a file without any of the names" | "class A { void a() {} }"                       | ["getBlock", "Block"] | false
+		"no changed names"                | "class A { void a() { b.getBlock(); } }"        | []                    | false
+	}
+}
@@ -0,0 +1,140 @@
+package net.fabricmc.loom.util.mappings
+
+import java.nio.file.FileSystems
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+
+import net.fabricmc.stitch.commands.tinyv2.CommandMergeTinyV2
+import net.fabricmc.stitch.commands.tinyv2.CommandReorderTinyV2
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class TinyV2MappingsTest extends Specification {
+	@Rule
+	TemporaryFolder testDir = new TemporaryFolder()
+
+	def "merging matches stitch for small mappings"() {
+		given:
+		Path intermediary = resource("intermediary.tiny")
+		Path yarn = resource("yarn.tiny")
+
+		expect:
+		flatten(mergeInMemory(intermediary, yarn)) == flatten(mergeWithStitch(intermediary, yarn))
+	}
+
+	@Unroll
+	def "merging matches stitch for Minecraft #mcVersion"() {
+		given:
+		Path intermediary = extract(download("https://maven.fabricmc.net/net/fabricmc/intermediary/${mcVersion}/intermediary-${mcVersion}-v2.jar"))
+		Path yarn = extract(download("https://maven.fabricmc.net/net/fabricmc/yarn/${yarnVersion}/yarn-${yarnVersion}-v2.jar"))
+
+		expect:
+		flatten(mergeInMemory(intermediary, yarn)) == flatten(mergeWithStitch(intermediary, yarn))
+
+		where:
+		mcVersion | yarnVersion
+		'19w45a'  | '19w45a+build.2'
+	}
+
+	def "merging fills in names missing from the second mappings"() {
+		given:
+		TinyV2Mappings a = parse("tiny\t2\t0\tintermediary\tofficial\n" +
+				"c\tnet/minecraft/class_1\ta\n" +
+				"\tf\tI\tfield_1\tb\n" +
+				"\tm\t()V\tmethod_1\tc\n")
+		TinyV2Mappings b = parse("tiny\t2\t0\tintermediary\tnamed\n" +
+				"c\tnet/minecraft/class_1\tnet/minecraft/Example\n" +
+				"\tm\t()V\tmethod_1\trun\n" +
+				"\t\tp\t1\t\tvalue\n")
+
+		when:
+		StringWriter written = new StringWriter()
+		TinyV2Mappings.merge(a, b).reorder("official", "intermediary", "named").write(written)
+
+		then:
+		written.toString() == "tiny\t2\t0\tofficial\tintermediary\tnamed\n" +
+				"c\ta\tnet/minecraft/class_1\tnet/minecraft/Example\n" +
+				"\tf\tI\tb\tfield_1\tfield_1\n" +
+				"\tm\t()V\tc\tmethod_1\trun\n" +
+				"\t\tp\t1\t\t\tvalue\n"
+	}
+
+	private static String mergeInMemory(Path intermediary, Path yarn) {
+		TinyV2Mappings merged = TinyV2Mappings.merge(read(intermediary).reorder("intermediary", "official"), read(yarn)).reorder("official", "intermediary", "named")
+		StringWriter written = new StringWriter()
+		merged.write(written)
+		return written.toString()
+	}
+
+	/**
+	 * Merge the given mappings the way loom used to, through Stitch's commands.
+	 */
+	private String mergeWithStitch(Path intermediary, Path yarn) {
+		Path inverted = testDir.newFile().toPath()
+		Path unordered = testDir.newFile().toPath()
+		Path merged = testDir.newFile().toPath()
+		new CommandReorderTinyV2().run([intermediary, inverted, "intermediary", "official"].collect { it.toString() } as String[])
+		new CommandMergeTinyV2().run([inverted, yarn, unordered, "intermediary", "official"].collect { it.toString() } as String[])
+		new CommandReorderTinyV2().run([unordered, merged, "official", "intermediary", "named"].collect { it.toString() } as String[])
+		return new String(Files.readAllBytes(merged), "UTF-8")
+	}
+
+	private Path resource(String name) {
+		Path copy = testDir.newFile(name).toPath()
+		getClass().getResourceAsStream("/mappings/" + name).withCloseable { Files.copy(it, copy, StandardCopyOption.REPLACE_EXISTING) }
+		return copy
+	}
+
+	private Path download(String url) {
+		Path jar = testDir.newFile().toPath()
+		new URL(url).withInputStream { Files.copy(it, jar, StandardCopyOption.REPLACE_EXISTING) }
+		return jar
+	}
+
+	private Path extract(Path jar) {
+		Path tiny = testDir.newFile().toPath()
+
+		FileSystems.newFileSystem(jar, (ClassLoader) null).withCloseable {
+			Files.copy(it.getPath("mappings", "mappings.tiny"), tiny, StandardCopyOption.REPLACE_EXISTING)
+		}
+
+		return tiny
+	}
+
+	private static TinyV2Mappings read(Path tiny) {
+		return Files.newBufferedReader(tiny).withCloseable { TinyV2Mappings.read(it) }
+	}
+
+	private static TinyV2Mappings parse(String tiny) {
+		return TinyV2Mappings.read(new BufferedReader(new StringReader(tiny)))
+	}
+
+	/**
+	 * Turn tiny v2 text into each line prefixed by the lines it is nested in, so two files with the same mappings
+	 * written in a different order compare equal.
+	 */
+	private static List<String> flatten(String tiny) {
+		List<String> parents = []
+		List<String> lines = []
+
+		tiny.eachLine { String line ->
+			int depth = 0
+
+			while (depth < line.length() && line.charAt(depth) == '\t' as char) {
+				depth++
+			}
+
+			while (parents.size() > depth) {
+				parents.remove(parents.size() - 1)
+			}
+
+			parents << line.substring(depth)
+			lines << parents.join(" > ")
+		}
+
+		return lines.sort()
+	}
+}
@@ -0,0 +1,212 @@
+package net.fabricmc.loom.util.zip
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Path
+import java.util.jar.JarFile
+import java.util.jar.JarInputStream
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+
+import org.apache.commons.io.IOUtils
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class ZipWriterTest extends Specification {
+	private static final byte[] MANIFEST = "Manifest-Version: 1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8)
+
+	@Rule
+	TemporaryFolder testDir = new TemporaryFolder()
+
+	def "written entries read back"() {
+		given:
+		Path jar = testDir.root.toPath().resolve("written.jar")
+
+		when:
+		new ZipWriter(jar).withCloseable {
+			it.write(JarFile.MANIFEST_NAME, MANIFEST)
+			it.write("a/A.class", bytes("class A"))
+			it.write("empty.txt", new byte[0])
+			it.write("\u00fcn\u00efc\u00f6d\u00e9.txt", bytes("unicode"))
+			it.finish()
+		}
+
+		then:
+		readZip(jar) == [
+				(JarFile.MANIFEST_NAME): MANIFEST,
+				"a/A.class": bytes("class A"),
+				"empty.txt": new byte[0],
+				"\u00fcn\u00efc\u00f6d\u00e9.txt": bytes("unicode")
+		]
+		readJar(jar) == readZip(jar)
+		firstEntry(jar) == JarFile.MANIFEST_NAME
+	}
+
+	def "writing the same entry twice fails"() {
+		given:
+		ZipWriter writer = new ZipWriter(testDir.root.toPath().resolve("duplicate.jar"))
+
+		when:
+		writer.withCloseable {
+			it.write("a.txt", bytes("a"))
+			it.write("a.txt", bytes("b"))
+		}
+
+		then:
+		thrown(IOException)
+	}
+
+	def "copied entries read back, including those written with data descriptors"() {
+		given:
+		//ZipOutputStream follows every deflated entry with a data descriptor rather than giving the sizes up front
+		Path source = zipOutputStream("source.jar", [
+				(JarFile.MANIFEST_NAME): MANIFEST,
+				"a/A.class": bytes("class A " * 100),
+				"b/B.class": bytes("class B"),
+				"skipped.txt": bytes("skipped")
+		])
+		Path jar = testDir.root.toPath().resolve("copied.jar")
+
+		when:
+		new ZipWriter(jar).withCloseable {
+			it.copy(source, { name -> name == JarFile.MANIFEST_NAME })
+			it.write("a/A.class", bytes("replaced"))
+			it.copy(source, { name -> name != "skipped.txt" })
+			it.finish()
+		}
+
+		then:
+		readZip(jar) == [
+				(JarFile.MANIFEST_NAME): MANIFEST,
+				"a/A.class": bytes("replaced"),
+				"b/B.class": bytes("class B")
+		]
+		//Reads each entry from its local header alone, so the sizes must be there now the data descriptor has gone
+		readJar(jar) == readZip(jar)
+		firstEntry(jar) == JarFile.MANIFEST_NAME
+	}
+
+	def "edited jars read back with the manifest still first"() {
+		given:
+		Path jar = zipOutputStream("edited.jar", [
+				(JarFile.MANIFEST_NAME): MANIFEST,
+				"a/A.class": bytes("class A"),
+				"b.txt": bytes("b"),
+				"c.txt": bytes("c")
+		])
+
+		when:
+		new ZipEdit(jar)
+				.put("d.txt", bytes("d"))
+				.replace("b.txt", bytes("new b"))
+				.replace("missing.txt", bytes("missing"))
+				.transform("c.txt", { data -> null })
+				.transform(JarFile.MANIFEST_NAME, EntryTransformer.ofString { it.replace("\r\n\r\n", "\r\nEdited: true\r\n\r\n") })
+				.commit()
+
+		then:
+		readZip(jar) == [
+				(JarFile.MANIFEST_NAME): bytes("Manifest-Version: 1.0\r\nEdited: true\r\n\r\n"),
+				"a/A.class": bytes("class A"),
+				"b.txt": bytes("new b"),
+				"d.txt": bytes("d")
+		]
+		readJar(jar) == readZip(jar)
+		firstEntry(jar) == JarFile.MANIFEST_NAME
+		new JarInputStream(jar.newInputStream()).withCloseable { it.manifest.mainAttributes.getValue("Edited") } == "true"
+	}
+
+	def "more than 65535 entries are written as zip64"() {
+		given:
+		Path jar = testDir.root.toPath().resolve("zip64.jar")
+		int count = 70000
+
+		when:
+		new ZipWriter(jar).withCloseable { writer ->
+			writer.write(JarFile.MANIFEST_NAME, MANIFEST)
+
+			for (int i = 0; i < count; i++) {
+				writer.write("entries/" + i + ".txt", bytes(Integer.toString(i)))
+			}
+
+			writer.finish()
+		}
+
+		then:
+		Map<String, byte[]> entries = readZip(jar)
+		entries.size() == count + 1
+		entries["entries/0.txt"] == bytes("0")
+		entries["entries/69999.txt"] == bytes("69999")
+		readJar(jar).size() == count + 1
+		firstEntry(jar) == JarFile.MANIFEST_NAME
+
+		when: "copying out of and editing a zip64 jar"
+		Path copy = testDir.root.toPath().resolve("zip64-copy.jar")
+
+		new ZipWriter(copy).withCloseable {
+			it.copy(jar, { name -> true })
+			it.finish()
+		}
+
+		new ZipEdit(copy).put("extra.txt", bytes("extra")).commit()
+
+		then:
+		Map<String, byte[]> copied = readZip(copy)
+		copied.size() == count + 2
+		copied["entries/12345.txt"] == bytes("12345")
+		copied["extra.txt"] == bytes("extra")
+		firstEntry(copy) == JarFile.MANIFEST_NAME
+	}
+
+	private Path zipOutputStream(String name, Map<String, byte[]> entries) {
+		Path zip = testDir.root.toPath().resolve(name)
+
+		new ZipOutputStream(zip.newOutputStream()).withCloseable { out ->
+			entries.each { entryName, data ->
+				out.putNextEntry(new ZipEntry(entryName))
+				out.write(data)
+				out.closeEntry()
+			}
+		}
+
+		return zip
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.UTF_8)
+	}
+
+	private static Map<String, byte[]> readZip(Path zip) {
+		Map<String, byte[]> entries = [:]
+
+		new ZipFile(zip.toFile()).withCloseable { file ->
+			file.entries().each { ZipEntry entry ->
+				entries[entry.name] = file.getInputStream(entry).bytes
+			}
+		}
+
+		return entries
+	}
+
+	private static Map<String, byte[]> readJar(Path jar) {
+		Map<String, byte[]> entries = [:]
+
+		new JarInputStream(jar.newInputStream(), true).withCloseable { input ->
+			assert input.manifest != null
+
+			//The manifest is taken out of the stream when it comes first, so it is put back to compare against
+			entries[JarFile.MANIFEST_NAME] = readZip(jar)[JarFile.MANIFEST_NAME]
+
+			for (ZipEntry entry = input.nextEntry; entry != null; entry = input.nextEntry) {
+				entries[entry.name] = IOUtils.toByteArray(input)
+			}
+		}
+
+		return entries
+	}
+
+	private static String firstEntry(Path zip) {
+		return new ZipFile(zip.toFile()).withCloseable { it.entries().nextElement().name }
+	}
+}